@@ -9,6 +9,9 @@ REM set OPTIONS="%OPTIONS% -clean"
 set EXTENSIONS=bin\ext;bin\ext\jssc-2.8.0.jar;bin\ext\libusb4java-1.2.0-linux-arm.jar;bin\ext\libusb4java-1.2.0-linux-x86.jar;bin\ext\libusb4java-1.2.0-linux-x86_64.jar;bin\ext\libusb4java-1.2.0-windows-x86.jar;bin\ext\libusb4java-1.2.0-windows-x86_64.jar;bin\ext\usb-api-osgi-1.0.2.jar;bin\ext\usb4java-1.2.0.jar;bin\ext\usb4java-javax-1.2.0.jar;bin\ext\zwave4j-0.6-SNAPSHOT.jar
 set OGEMA_CLASSPATH=%LAUNCHER%;%EXTENSIONS%
 set VMOPTS=%VMOPTS% -cp %OGEMA_CLASSPATH%
+REM class data sharing archive, create it with start.cmd --generate-cds (Java 13+)
+if "%CDS_ARCHIVE%"=="" set CDS_ARCHIVE=ogema.jsa
+if exist %CDS_ARCHIVE% set VMOPTS=%VMOPTS% -XX:SharedArchiveFile=%CDS_ARCHIVE% -Xshare:auto
 set JAVA=java
 
 REM find out java version; in case of java 9 add required modules
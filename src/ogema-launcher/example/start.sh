@@ -11,6 +11,11 @@ OPTIONS=$OGEMA_OPTIONS
 JAVA=${JAVA_HOME:+${JAVA_HOME}/bin/}java
 EXTENSIONS=bin/ext$(find bin/ext/ -iname "*jar" -printf :%p)
 VMOPTS="$VMOPTS -cp $LAUNCHER:EXTENSIONS"
+# class data sharing archive, create it with ./start.sh --generate-cds (Java 13+)
+CDS_ARCHIVE=${OGEMA_CDS_ARCHIVE:-ogema.jsa}
+if [ -f "$CDS_ARCHIVE" ] && [[ ! " $@ " =~ " --generate-cds " ]]; then
+	VMOPTS="$VMOPTS -XX:SharedArchiveFile=$CDS_ARCHIVE -Xshare:auto"
+fi
 
 # Determine java version
 jver=$(java -version 2>&1 | grep -i version | sed 's/.*version ".*\.\(.*\)\..*"/\1/; 1q')
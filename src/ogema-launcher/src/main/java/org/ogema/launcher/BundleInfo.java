@@ -32,6 +32,8 @@ public class BundleInfo implements Comparable<BundleInfo> {
 	private String mavenCoords = "";
 	// maven artifact location
 	private URI mavenArtifactLocation;
+	// URL the bundle is downloaded from, if it is not available in the bin directory
+	private URI remoteLocation;
 	// OSGi start level
 	private int startLevel = 4;
 	// flag that determines if the bundle should be started
@@ -107,6 +109,14 @@ public class BundleInfo implements Comparable<BundleInfo> {
 		this.mavenArtifactLocation = uri;
 	}
 
+	public URI getRemoteLocation() {
+		return remoteLocation;
+	}
+
+	public void setRemoteLocation(URI remoteLocation) {
+		this.remoteLocation = remoteLocation;
+	}
+
 	public int getStartLevel() {
 		return startLevel;
 	}
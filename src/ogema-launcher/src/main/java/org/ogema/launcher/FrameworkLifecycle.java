@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.launch.Framework;
+
+/**
+ * Lets the launcher wait for framework lifecycle transitions instead of sleeping for a fixed time.
+ * Transitions announced by a framework event are awaited via {@link #expect(int)}, and complete as
+ * soon as the event is delivered. The only transition without an event is the restart of the
+ * framework after an update, since listeners do not survive the restart; see
+ * {@link #awaitRestart(Framework, long)}.
+ */
+class FrameworkLifecycle implements FrameworkListener {
+
+	private final List<Expectation> expectations = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Must be called before the operation that causes the event, and the result must be awaited
+	 * or cancelled.
+	 * @param eventType
+	 * 		a {@link FrameworkEvent} type
+	 */
+	Expectation expect(int eventType) {
+		final Expectation e = new Expectation(eventType);
+		expectations.add(e);
+		return e;
+	}
+
+	@Override
+	public void frameworkEvent(FrameworkEvent event) {
+		for (Expectation e : expectations) {
+			if (e.type == event.getType()) {
+				expectations.remove(e);
+				e.event = event;
+				e.latch.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Waits until the framework is starting or active again after it has stopped for an update.
+	 * The framework state is checked in intervals growing from 5 to 100 ms, so that the usual
+	 * immediate restart is noticed without delay.
+	 * @param framework
+	 * @param timeout
+	 * 		in ms
+	 * @return
+	 * 		the framework state when the method returns
+	 */
+	static int awaitRestart(Framework framework, long timeout) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		long pause = 5;
+		int state;
+		while (((state = framework.getState()) & (Bundle.STARTING | Bundle.ACTIVE)) == 0) {
+			final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remaining <= 0)
+				break;
+			Thread.sleep(Math.min(pause, remaining));
+			pause = Math.min(2 * pause, 100);
+		}
+		return state;
+	}
+
+	/**
+	 * A framework event the launcher is waiting for.
+	 */
+	class Expectation {
+
+		private final int type;
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private volatile FrameworkEvent event;
+
+		private Expectation(int type) {
+			this.type = type;
+		}
+
+		/**
+		 * @return
+		 * 		the event, or null if it has not been received within the timeout
+		 */
+		FrameworkEvent await(long timeout, TimeUnit unit) throws InterruptedException {
+			try {
+				return latch.await(timeout, unit) ? event : null;
+			} finally {
+				cancel();
+			}
+		}
+
+		void cancel() {
+			expectations.remove(this);
+		}
+
+	}
+
+}
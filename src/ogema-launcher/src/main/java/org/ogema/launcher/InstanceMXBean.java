@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher;
+
+import java.util.Map;
+
+/**
+ * Management interface of a framework instance run by the {@link InstanceSupervisor},
+ * registered as <code>org.ogema.launcher:type=Instance,name=&lt;instance name&gt;</code>.
+ */
+public interface InstanceMXBean {
+
+	String getName();
+
+	/**
+	 * @return
+	 * 		STOPPED, FAILED, or the state of the framework bundle (STARTING, ACTIVE, ...)
+	 */
+	String getState();
+
+	/**
+	 * @return
+	 * 		number of bundles by state, empty if the instance is not running
+	 */
+	Map<String, Integer> getBundleStates();
+
+	/**
+	 * @return
+	 * 		increase of the used heap from before the framework start until the start level was
+	 * 		reached. No garbage collection is forced, so this is a rough estimate of the memory taken
+	 * 		by the instance, including garbage created during the start. -1 if not measured yet.
+	 */
+	long getStartupHeapBytes();
+
+	/**
+	 * @return
+	 * 		size of the framework storage of the instance in bytes
+	 */
+	long getStorageBytes();
+
+	/**
+	 * @return
+	 * 		number of framework restarts since the supervisor has been started
+	 */
+	long getRestarts();
+
+	/**
+	 * @return
+	 * 		time since the instance has been started in ms, 0 if it is not running
+	 */
+	long getUptime();
+
+	/**
+	 * Starts the instance, if it is not running, and waits until its start level has been reached.
+	 */
+	void start();
+
+	/**
+	 * Stops the framework of the instance and waits for it to terminate.
+	 */
+	void stop();
+
+	/**
+	 * Restarts the framework of the instance in place, by updating the system bundle.
+	 */
+	void restart();
+
+}
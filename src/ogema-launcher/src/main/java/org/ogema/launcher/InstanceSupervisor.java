@@ -0,0 +1,436 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.ParseException;
+import org.ogema.launcher.LauncherConstants.KnownProgOptions;
+import org.ogema.launcher.config.FrameworkConfiguration;
+import org.ogema.launcher.config.LauncherConfiguration;
+import org.ogema.launcher.exceptions.FrameworkConfigurationException;
+import org.ogema.launcher.metrics.LauncherMetrics;
+import org.ogema.launcher.util.FrameworkUtil;
+import org.ogema.launcher.util.StorageLock;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.launch.Framework;
+
+/**
+ * Runs several OGEMA instances in one VM (option <code>--instances &lt;file&gt;</code>), each one
+ * with its own framework. The instances file is a properties file mapping the instance name to the
+ * launcher arguments of the instance, e.g.
+ * <pre>
+ * tenant1=-cfg config/tenant1.xml -p config/tenant1.properties
+ * tenant2=-cfg config/tenant2.xml
+ * </pre>
+ * Each instance keeps its framework storage and userdata in <code>instances/&lt;name&gt;</code>
+ * (base directory configurable via the system property {@value #INSTANCES_DIR_PROPERTY}), and holds
+ * the {@link StorageLock} of its storage while running. Properties files passed with -p become
+ * framework properties of the instance, instead of system properties.<br>
+ * Instances with the same framework bundle share its class loader, so the framework classes and the
+ * launcher itself are loaded only once, which is the main saving compared to one VM per instance.
+ * Each instance is registered as {@link InstanceMXBean}, and can be stopped, started and restarted
+ * individually. The supervisor terminates when all instances have stopped.<br>
+ * The -security option is not supported, since the security manager is global to the VM.
+ */
+class InstanceSupervisor {
+
+	static final String INSTANCES_DIR_PROPERTY = "org.ogema.launcher.instances.dir";
+	private static final String OBJECT_NAME_PREFIX = "org.ogema.launcher:type=Instance,name=";
+	private static final long START_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+	private static final long STOP_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+	private final File instancesFile;
+	private final File baseDir;
+	private final Map<String, Instance> instances = new LinkedHashMap<>();
+	private final Object terminationLock = new Object();
+
+	InstanceSupervisor(File instancesFile) {
+		this.instancesFile = instancesFile;
+		this.baseDir = new File(System.getProperty(INSTANCES_DIR_PROPERTY, "instances"));
+	}
+
+	/**
+	 * Starts all instances one after the other, and returns once all of them have terminated.
+	 */
+	void run() throws IOException, ParseException, InterruptedException {
+		final Properties props = new Properties();
+		try (Reader reader = Files.newBufferedReader(instancesFile.toPath(), StandardCharsets.UTF_8)) {
+			props.load(reader);
+		}
+		// start order by name
+		final Map<String, String> sorted = new TreeMap<>();
+		for (String name : props.stringPropertyNames()) {
+			sorted.put(name, props.getProperty(name));
+		}
+		for (Map.Entry<String, String> entry : sorted.entrySet()) {
+			final String[] args = tokenize(entry.getValue());
+			final CommandLine options = OgemaLauncher.parseOptions(OgemaLauncher.setupOptions(), args);
+			if (options.hasOption(KnownProgOptions.SECURITY.getSwitch())) {
+				OgemaLauncher.LOGGER.severe("Instance " + entry.getKey() + ": option -security is not supported in supervisor mode, skipping it");
+				continue;
+			}
+			instances.put(entry.getKey(), new Instance(entry.getKey(), args, options));
+		}
+		if (instances.isEmpty()) {
+			OgemaLauncher.LOGGER.warning("No instances configured in " + instancesFile.getAbsolutePath());
+			return;
+		}
+		OgemaLauncher.LOGGER.info("Starting " + instances.size() + " instances: " + instances.keySet());
+		for (Instance instance : instances.values()) {
+			instance.register();
+			try {
+				instance.start();
+			} catch (RuntimeException e) {
+				OgemaLauncher.LOGGER.log(Level.SEVERE, "Instance " + instance.name + " failed to start", e);
+			}
+		}
+		synchronized (terminationLock) {
+			while (isAnyRunning()) {
+				terminationLock.wait();
+			}
+		}
+		OgemaLauncher.LOGGER.info("All instances terminated");
+	}
+
+	private boolean isAnyRunning() {
+		for (Instance instance : instances.values()) {
+			if (instance.thread != null)
+				return true;
+		}
+		return false;
+	}
+
+	private void terminated() {
+		synchronized (terminationLock) {
+			terminationLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Splits the arguments at whitespace, except within single or double quotes.
+	 */
+	static String[] tokenize(String line) {
+		final List<String> result = new ArrayList<>();
+		final StringBuilder sb = new StringBuilder();
+		boolean inToken = false;
+		char quote = 0;
+		for (int i = 0; i < line.length(); i++) {
+			final char c = line.charAt(i);
+			if (quote != 0) {
+				if (c == quote)
+					quote = 0;
+				else
+					sb.append(c);
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+				inToken = true;
+			} else if (Character.isWhitespace(c)) {
+				if (inToken) {
+					result.add(sb.toString());
+					sb.setLength(0);
+					inToken = false;
+				}
+			} else {
+				sb.append(c);
+				inToken = true;
+			}
+		}
+		if (inToken)
+			result.add(sb.toString());
+		return result.toArray(new String[result.size()]);
+	}
+
+	private static long usedHeap() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private class Instance implements InstanceMXBean {
+
+		private final String name;
+		private final CommandLine options;
+		private final String[] restartArgs;
+		private final File dir;
+		private final AtomicLong restarts = new AtomicLong();
+		private final LauncherMetrics metrics;
+		private volatile OgemaFramework framework;
+		private StorageLock lock; // held while running
+		private volatile Thread thread; // null if not running
+		private volatile boolean failed;
+		private volatile long startedAt;
+		private volatile long startupHeap = -1;
+
+		Instance(String name, String[] args, CommandLine options) {
+			this.name = name;
+			this.options = options;
+			this.restartArgs = Arrays.copyOf(args, args.length + 1);
+			this.restartArgs[args.length] = "-" + KnownProgOptions.RESTART.getSwitch();
+			this.dir = new File(baseDir, name);
+			this.metrics = LauncherMetrics.forInstance(name);
+		}
+
+		void register() {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name)));
+			} catch (JMException e) {
+				OgemaLauncher.LOGGER.warning("Could not register MBean for instance " + name + ": " + e);
+			}
+			if (LauncherMetrics.getInstance().isEnabled())
+				metrics.enable(null);
+		}
+
+		private LauncherConfiguration createConfiguration(CommandLine options, FrameworkConfiguration frameworkConfig)
+				throws FrameworkConfigurationException, IOException {
+			if (frameworkConfig != null)
+				return new LauncherConfiguration(options, frameworkConfig);
+			final LauncherConfiguration config = new LauncherConfiguration(options);
+			final FrameworkConfiguration cfg = config.getFrameworkConfig();
+			if (cfg == null)
+				throw new FrameworkConfigurationException("No configuration found for instance " + name);
+			cfg.setFrameworkStorage(new File(dir, "osgi-storage"));
+			cfg.addFrameworkProperty(LauncherConstants.USERDATA_PROPERTY, new File(dir, "data").getPath());
+			// the files deleted on a clean start belong to the instance as well
+			final List<String> deleteList = new ArrayList<>();
+			for (String path : cfg.getDeleteList()) {
+				deleteList.add(new File(path).isAbsolute() ? path : new File(dir, path).getPath());
+			}
+			cfg.setDeleteList(deleteList);
+			if (options.hasOption(KnownProgOptions.PROPS.getSwitch())) {
+				for (String file : options.getOptionValues(KnownProgOptions.PROPS.getSwitch())) {
+					final Properties props = new Properties();
+					try (InputStream in = Files.newInputStream(new File(file).toPath())) {
+						props.load(in);
+					}
+					for (String key : props.stringPropertyNames()) {
+						cfg.addFrameworkProperty(key, props.getProperty(key));
+					}
+				}
+			}
+			return config;
+		}
+
+		@Override
+		public void start() {
+			final OgemaFramework fw;
+			final Thread t;
+			synchronized (this) {
+				if (thread != null)
+					return;
+				final LauncherConfiguration config;
+				try {
+					config = createConfiguration(options, null);
+				} catch (FrameworkConfigurationException | IOException e) {
+					failed = true;
+					throw new IllegalStateException("Invalid configuration for instance " + name + ": " + e.getMessage());
+				}
+				final File storage = FrameworkUtil.getFrameworkStorage(config.getFrameworkConfig());
+				try {
+					lock = StorageLock.tryAcquire(storage);
+				} catch (IOException e) {
+					failed = true;
+					throw new IllegalStateException("Could not lock the storage of instance " + name + ": " + e.getMessage());
+				}
+				if (lock == null) {
+					failed = true;
+					throw new IllegalStateException("Storage of instance " + name + " is in use: " + StorageLock.getLockFile(storage));
+				}
+				fw = new OgemaFramework(config);
+				fw.setShareFrameworkClassLoader(true);
+				fw.setScopeUserdataPath(true);
+				fw.setMetrics(metrics);
+				t = new Thread(new Runnable() {
+
+					@Override
+					public void run() {
+						runFramework(fw);
+					}
+				}, "ogema-instance-" + name);
+				framework = fw;
+				thread = t;
+				failed = false;
+			}
+			final long heapBefore = usedHeap();
+			startedAt = System.currentTimeMillis();
+			t.start();
+			final long deadline = System.currentTimeMillis() + START_TIMEOUT;
+			try {
+				while (!fw.awaitStart(100, TimeUnit.MILLISECONDS)) {
+					if (!t.isAlive() || System.currentTimeMillis() > deadline) {
+						OgemaLauncher.LOGGER.warning("Instance " + name + " did not reach its start level");
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			startupHeap = Math.max(0, usedHeap() - heapBefore);
+			OgemaLauncher.LOGGER.info(String.format("Instance %s started in %d ms, heap increase %d kB", name,
+					System.currentTimeMillis() - startedAt, startupHeap / 1024));
+		}
+
+		private void runFramework(OgemaFramework fw) {
+			try {
+				RestartType restart;
+				while (true) {
+					restart = fw.start(ClassLoader.getSystemClassLoader());
+					metrics.restart(restart);
+					if (restart != RestartType.RESTART && restart != RestartType.NEW_CLASSLOADER)
+						break;
+					restarts.incrementAndGet();
+					OgemaLauncher.LOGGER.info("Instance " + name + " terminated with restart type " + restart + ", restarting");
+					fw.reset(createConfiguration(OgemaLauncher.parseOptions(OgemaLauncher.setupOptions(), restartArgs),
+							fw.getConfiguration().getFrameworkConfig()), restart);
+				}
+				if (restart == RestartType.NEW_VM) {
+					OgemaLauncher.LOGGER.severe("Instance " + name + " requires a restart of the VM (boot class path modified), stopping it");
+				}
+			} catch (Exception e) {
+				failed = true;
+				OgemaLauncher.LOGGER.log(Level.SEVERE, "Instance " + name + " failed", e);
+			} finally {
+				fw.discard();
+				synchronized (this) {
+					try {
+						lock.close();
+					} catch (IOException e) {
+						OgemaLauncher.LOGGER.warning("Could not release the storage lock of instance " + name + ": " + e);
+					}
+					lock = null;
+					framework = null;
+					thread = null;
+					startedAt = 0;
+				}
+				OgemaLauncher.LOGGER.info("Instance " + name + " terminated");
+				terminated();
+			}
+		}
+
+		@Override
+		public void stop() {
+			final OgemaFramework fw = framework;
+			final Thread t = thread;
+			if (fw == null || t == null)
+				return;
+			try {
+				fw.stop();
+				t.join(STOP_TIMEOUT);
+			} catch (BundleException e) {
+				throw new IllegalStateException("Could not stop instance " + name + ": " + e.getMessage());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void restart() {
+			final OgemaFramework fw = framework;
+			final Framework f = fw != null ? fw.getFramework() : null;
+			if (f == null)
+				throw new IllegalStateException("Instance " + name + " is not running");
+			try {
+				f.update();
+				restarts.incrementAndGet();
+			} catch (BundleException e) {
+				throw new IllegalStateException("Could not restart instance " + name + ": " + e.getMessage());
+			}
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public String getState() {
+			final OgemaFramework fw = framework;
+			final Framework f = fw != null ? fw.getFramework() : null;
+			if (f == null)
+				return failed ? "FAILED" : (thread != null ? "STARTING" : "STOPPED");
+			return FrameworkUtil.getBundleState(f.getState());
+		}
+
+		@Override
+		public Map<String, Integer> getBundleStates() {
+			final OgemaFramework fw = framework;
+			if (fw == null)
+				return Collections.emptyMap();
+			return FrameworkUtil.countBundleStates(fw.getFramework());
+		}
+
+		@Override
+		public long getStartupHeapBytes() {
+			return startupHeap;
+		}
+
+		@Override
+		public long getStorageBytes() {
+			final Path storage = new File(dir, "osgi-storage").toPath();
+			if (!Files.isDirectory(storage))
+				return 0;
+			final AtomicLong size = new AtomicLong();
+			try {
+				Files.walkFileTree(storage, new SimpleFileVisitor<Path>() {
+
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+						size.addAndGet(attrs.size());
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path file, IOException exc) {
+						return FileVisitResult.CONTINUE; // deleted concurrently
+					}
+				});
+			} catch (IOException e) {
+				OgemaLauncher.LOGGER.fine("Could not determine storage size of instance " + name + ": " + e);
+			}
+			return size.get();
+		}
+
+		@Override
+		public long getRestarts() {
+			return restarts.get();
+		}
+
+		@Override
+		public long getUptime() {
+			final long started = startedAt;
+			return started == 0 ? 0 : System.currentTimeMillis() - started;
+		}
+
+	}
+
+}
@@ -21,6 +21,7 @@ import org.ogema.launcher.util.LocalizationHelper;
  */
 public interface LauncherConstants {
 	
+	/** Lock file in the rundir used by earlier versions, superseded by the {@link org.ogema.launcher.util.StorageLock} */
 	public static final String LOCK_FILE = "ogema-launcher.lock";
 	static final String DEFAULT_CFG_FILE_NAME = "config.xml";
 	/** If no cfg file is given check if the default cfg file exists */
@@ -33,6 +34,10 @@ public interface LauncherConstants {
 	static final int DEF_START_LVL = 4;
 	static final String USERDATA_PROPERTY = "org.ogema.userdata.path";
 	static final long DEF_REFRESH_TIMEOUT = 5000;
+	/** System property, set to false for synchronous console logging */
+	static final String LOG_ASYNC_PROPERTY = "org.ogema.launcher.log.async";
+	/** System property, set to json for JSON lines log output */
+	static final String LOG_FORMAT_PROPERTY = "org.ogema.launcher.log.format";
 
 	static final LocalizationHelper lh = LocalizationHelper.getInstance();
 	
@@ -77,7 +82,13 @@ public interface LauncherConstants {
 		TAG_SNAPSHOTS("ts", "tag-snapshots", lh.getStringForHelpOutput("tag-snapshots"),1,"isDiff",true),
 		// development mode -> do not use in production
 		STARTLEVEL("sl", "startlevel", lh.getStringForHelpOutput("startlevel"),1, "startlevel"),
-		STRICT_MODE("s", "strict", lh.getStringForHelpOutput("strict"));
+		STRICT_MODE("s", "strict", lh.getStringForHelpOutput("strict")),
+		VALIDATE_ONLY("vo", "validate-only", lh.getStringForHelpOutput("validate-only")),
+		GENERATE_CDS("cds", "generate-cds", lh.getStringForHelpOutput("generate-cds"), 1, "file", true),
+		METRICS("m", "metrics", lh.getStringForHelpOutput("metrics"), 1, "port", true),
+		INSTANCES("inst", "instances", lh.getStringForHelpOutput("instances"), 1, "file"),
+		ROLLBACK("rollback", "rollback", lh.getStringForHelpOutput("rollback")),
+		SECURITY_PROFILE("secprof", "security-profile", lh.getStringForHelpOutput("security-profile"));
 
 		private String cmdSwitch;
 		private String longCmdSwitch = null;
@@ -10,11 +10,9 @@ package org.ogema.launcher;
 
 import static org.ogema.launcher.LauncherConstants.DEF_REFRESH_TIMEOUT;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
@@ -24,7 +22,9 @@ import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -42,12 +42,22 @@ import org.ogema.launcher.LauncherConstants.KnownProgOptions;
 import org.ogema.launcher.config.ConfigurationConstants;
 import org.ogema.launcher.config.EquinoxConfiguration;
 import org.ogema.launcher.config.FrameworkConfiguration;
+import org.ogema.launcher.config.KnopflerfishConfiguration;
 import org.ogema.launcher.config.LauncherConfiguration;
+import org.ogema.launcher.metrics.LauncherMetrics;
+import org.ogema.launcher.metrics.PermissionCheckProfiler;
 import org.ogema.launcher.resolver.BundleResolver;
 import org.ogema.launcher.resolver.ResolverFactory;
 import org.ogema.launcher.util.AbstractPackagingUtil;
+import org.ogema.launcher.util.CdsArchiveGenerator;
 import org.ogema.launcher.util.DeploymentPackageBuilder;
+import org.ogema.launcher.util.FrameworkInfo;
 import org.ogema.launcher.util.FrameworkUtil;
+import org.ogema.launcher.util.LaunchFingerprint;
+import org.ogema.launcher.util.LaunchJournal;
+import org.ogema.launcher.util.LogContext;
+import org.ogema.launcher.util.PolicyCompiler;
+import org.ogema.launcher.util.StorageSnapshot;
 import org.ogema.launcher.util.TarPackagingUtil;
 import org.ogema.launcher.util.TgzPackagingUtil;
 import org.ogema.launcher.util.ZipPackagingUtil;
@@ -95,16 +105,111 @@ public class OgemaFramework {
 
 	private LauncherConfiguration configuration = null;
 	private final SecurityManager initialSecurityManager = System.getSecurityManager();
+	private LauncherMetrics metrics = LauncherMetrics.getInstance();
+	private final FrameworkLifecycle lifecycle = new FrameworkLifecycle();
+	// state kept for restarts, see reset(LauncherConfiguration, RestartType)
+	private BundleResolver resolverChain;
+	private URLClassLoader frameworkClassLoader;
+	// framework and class loader before a NEW_CLASSLOADER restart, until the new framework exists
+	private Framework retiredFramework;
+	private URLClassLoader retiredClassLoader;
+	private boolean configurationPrepared; // framework bundle resolved, configuration adapted
+	private boolean shareFrameworkClassLoader;
+	private boolean scopeUserdataPath;
+	private RestartType restartType; // null for the initial start
+	private volatile long stoppedAt; // System.nanoTime() when the framework stopped
+	private LaunchJournal journal; // while the framework storage is being modified
+	private StorageSnapshot snapshot; // of the storage before it is modified, for a rollback
+	private boolean rolledBack; // the next start runs on the restored storage without retrying the update
 
 	// for testing
 	public void reset(LauncherConfiguration config) {
+		reset(config, RestartType.RESTART);
+	}
+
+	/**
+	 * Prepare the next {@link #start(ClassLoader)} after the framework has terminated with the
+	 * given restart type. What is still valid is reused: the resolver chain, and the resolved
+	 * framework bundle and adapted configuration if the framework configuration is the same object.
+	 * For {@link RestartType#RESTART} the framework instance and its class loader are kept as well,
+	 * for {@link RestartType#NEW_CLASSLOADER} both are created anew.
+	 */
+	public void reset(LauncherConfiguration config, RestartType type) {
 		// fwkLock = new Object();
+		configurationPrepared &= configuration != null && config.getFrameworkConfig() == configuration.getFrameworkConfig();
 		this.configuration = config;
+		this.restartType = type;
+		if (type != RestartType.RESTART) {
+			retiredFramework = framework;
+			retiredClassLoader = frameworkClassLoader;
+			framework = null;
+			frameworkClassLoader = null;
+		}
 		// waitForFrameworkRestart = false;
 		startLatch = new CountDownLatch(1);
 		startLevelLatch = new CountDownLatch(1);
 	}
 
+	/**
+	 * Called once the framework for a NEW_CLASSLOADER restart has been created; if that failed,
+	 * the previous framework instance is restarted instead.
+	 */
+	private void releaseRetiredFramework() {
+		if (retiredFramework == null)
+			return;
+		if (framework == null) {
+			// Felix on Java 9+ cannot unregister its URL handlers without --add-opens java.base/java.net=ALL-UNNAMED,
+			// so a second instance fails to initialize
+			OgemaLauncher.LOGGER.warning("Could not create a new framework instance, restarting the previous one");
+			framework = retiredFramework;
+			frameworkClassLoader = retiredClassLoader;
+		} else if (retiredClassLoader != null && !FrameworkUtil.isSharedFrameworkClassLoader(retiredClassLoader)) {
+			try {
+				retiredClassLoader.close();
+			} catch (IOException e) {
+				OgemaLauncher.LOGGER.fine("Could not close framework class loader: " + e);
+			}
+		}
+		retiredFramework = null;
+		retiredClassLoader = null;
+	}
+
+	/**
+	 * Use a framework class loader shared with other instances in this VM that have the same
+	 * framework bundle, except for {@link RestartType#NEW_CLASSLOADER} restarts. Must be set
+	 * before the first start.
+	 */
+	void setShareFrameworkClassLoader(boolean share) {
+		this.shareFrameworkClassLoader = share;
+	}
+
+	/**
+	 * Pass the userdata path as framework properties only, for several instances in this VM;
+	 * otherwise it is published as system properties. Must be set before the first start.
+	 */
+	void setScopeUserdataPath(boolean scope) {
+		this.scopeUserdataPath = scope;
+	}
+
+	/**
+	 * Record the metrics of this framework separately from the launcher metrics, for several
+	 * instances in this VM. Must be set before the first start.
+	 */
+	void setMetrics(LauncherMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	LauncherConfiguration getConfiguration() {
+		return configuration;
+	}
+
+	private BundleResolver getResolverChain(CommandLine options) {
+		// the options relevant for the resolvers do not change on restart
+		if (resolverChain == null)
+			resolverChain = ResolverFactory.createResolverChain(options);
+		return resolverChain;
+	}
+
 	// for testing
 	public boolean awaitStart(long timeout, TimeUnit unit) throws InterruptedException {
 		return startLevelLatch.await(timeout, unit);
@@ -163,13 +268,17 @@ public class OgemaFramework {
 	public void discard() {
 		final Thread shutdownHook = this.shutdownHook;
 		if (shutdownHook != null) {
-			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) { // VM shutting down, the hook is running already
+			}
 		}
 	}
 
 	final FrameworkListener frameworkListener = new FrameworkListener() {
 		@Override
 		public void frameworkEvent(FrameworkEvent fe) {
+			lifecycle.frameworkEvent(fe);
 			// if (OgemaLauncher.LOGGER.isLoggable(Level.FINER))
 			// OgemaLauncher.LOGGER.log(Level.FINER, "Framework event: " + fe.getType());
 			switch (fe.getType()) {
@@ -182,10 +291,12 @@ public class OgemaFramework {
 				startLevelLatch.countDown();
 				break;
 			case FrameworkEvent.WARNING:
+				metrics.frameworkWarning();
 				OgemaLauncher.LOGGER.warning(
 						"Warning: " + fe.getSource() + (fe.getThrowable() != null ? " - " + fe.getThrowable() : ""));
 				break;
 			case FrameworkEvent.ERROR:
+				metrics.frameworkError();
 				String errMsg = "Error occured: " + fe.getThrowable() != null ? fe.getThrowable().getMessage() + " "
 						: "";
 				errMsg += fe.getThrowable().getCause() != null ? "- cause: " + fe.getThrowable().getCause().getMessage()
@@ -199,55 +310,6 @@ public class OgemaFramework {
 		}
 	};
 	
-	private final void checkFrameworkState() {
-		Runnable checkFrameworkState = new Runnable() {
-			@Override
-			public void run() {
-				synchronized (fwkLock) {
-					long maxWait = System.currentTimeMillis() + refreshTimeout; // for now hard coded 5
-																				// seconds
-					while (framework.getState() != Bundle.ACTIVE && System.currentTimeMillis() < maxWait) {
-						try {
-							Thread.sleep(100);
-						} catch (InterruptedException ignore) {
-						}
-					}
-					if (OgemaLauncher.LOGGER.isLoggable(Level.FINE)) {
-						OgemaLauncher.LOGGER.log(Level.FINE,
-								"Finished wait for framework update. Current state is starting or active: "
-										+ (framework.getState() == Bundle.STARTING
-												|| framework.getState() == Bundle.ACTIVE)
-										+ "; state: " + framework.getState());
-					}
-					// if the framework did not restart by itself, it either requires a new classloader
-					// (framework extension updated), or even a fresh VM (bootstrap extension fragment updated)
-					// -> we better call the start();
-					if (framework.getState() == Bundle.INSTALLED || framework.getState() == Bundle.RESOLVED) { 
-						// this would  lead to an immediate failure
-						OgemaLauncher.LOGGER.log(Level.WARNING,
-								"Framework did not recover from refreshing bundles. Trying to start again.");
-//						maxWait = System.currentTimeMillis() + refreshTimeout; // for now hard coded 5
-//																				// seconds
-						if (System.getSecurityManager() != null	&& System.getSecurityManager() != initialSecurityManager)
-							System.setSecurityManager(initialSecurityManager);
-
-							// instead of starting the same instance, we restart the framework with a new classloader
-//							fwk.start();
-//							while (fwk.getState() != Bundle.STARTING && fwk.getState() != Bundle.ACTIVE	&& System.currentTimeMillis() < maxWait) {
-//								Thread.sleep(100);
-//							}
-					}
-					try {
-						fwkLock.notifyAll();
-					} catch (IllegalMonitorStateException e) {
-						/* happens on restart, e.g. in tests */ }
-				}
-			}
-		};
-		Thread restartThread = new Thread(checkFrameworkState);
-		restartThread.setName("launcher-restart-observer");
-		restartThread.start();
-	}
 /*
 	final BundleListener bundleListener = new SynchronousBundleListener() {
 
@@ -326,6 +388,9 @@ public class OgemaFramework {
 	 * @return whether to restart when the method has finished
 	 */
 	public RestartType start(final ClassLoader baseClassLoader) {
+		final long launchStart = System.nanoTime();
+		long phaseStart = launchStart;
+		LogContext.setPhase("resolve");
 		FrameworkConfiguration frameworkConfig = configuration.getFrameworkConfig();
 		CommandLine options = configuration.getOptions();
 
@@ -338,6 +403,7 @@ public class OgemaFramework {
 		final boolean createDeploymentPackage = options.hasOption(KnownProgOptions.DEPLOYMENT_PACKAGE.getSwitch());
 		final boolean strictMode = options.hasOption(KnownProgOptions.STRICT_MODE.getSwitch());
 		final boolean startLevelSwitchSet = options.hasOption(KnownProgOptions.STARTLEVEL.getSwitch());
+		final boolean rollback = !isRestart && options.hasOption(KnownProgOptions.ROLLBACK.getSwitch());
 
 		if (hasRefreshTimeout) {
 			try {
@@ -352,42 +418,66 @@ public class OgemaFramework {
 						+ " Using the default of " + DEF_REFRESH_TIMEOUT + ".");
 			}
 		}
-		if (isConsoleActivated || isBuildSwitchSet) {
-			String port = options.getOptionValue(LauncherConstants.KnownProgOptions.CONSOLE.getSwitch());
-			if (port == null && isBuildSwitchSet) {
-				// also add all console bundles if we want to build package:
-				// port must be != null so we simply add a dummy value as port ...
-				port = "1234";
+		// the restored storage is started as it is, the next launch applies the changes since the snapshot
+		final boolean afterRollback = rolledBack
+				|| (rollback && !clean && restoreSnapshot(FrameworkUtil.getFrameworkStorage(frameworkConfig)));
+		rolledBack = false;
+		// on restart, the configuration has been prepared by the previous start already
+		if (!configurationPrepared) {
+			// nothing to resolve except the framework bundle, unless the configuration has changed
+			final boolean warmStart = !clean && !updateBundles && !isBuildSwitchSet && !createDeploymentPackage
+					&& FrameworkUtil.frameworkStorageExists(frameworkConfig);
+
+			// resolve fwk bundle ...
+			if (!FrameworkUtil.resolveFrameworkBundle(getResolverChain(options), frameworkConfig.getFrameworkBundle(), warmStart)) {
+				OgemaLauncher.LOGGER.warning("Error: cannot resolve framework bundle!");
+				return RestartType.EXIT;
+			}
+			// the configuration type has been guessed from the framework bundle name
+			final FrameworkInfo frameworkInfo = FrameworkUtil.getFrameworkInfo(frameworkConfig.getFrameworkBundle());
+			if (frameworkInfo != null) {
+				frameworkConfig = configuration.adaptFrameworkConfig(frameworkInfo.getSymbolicName());
+			}
+			if (isConsoleActivated || isBuildSwitchSet) {
+				String port = options.getOptionValue(LauncherConstants.KnownProgOptions.CONSOLE.getSwitch());
+				if (port == null && isBuildSwitchSet) {
+					// also add all console bundles if we want to build package:
+					// port must be != null so we simply add a dummy value as port ...
+					port = "1234";
+				}
+				frameworkConfig.activateOsgiBuiltInConsole(port);
 			}
-			frameworkConfig.activateOsgiBuiltInConsole(port);
+			if (frameworkConfig instanceof EquinoxConfiguration) {
+				fixEquinoxFrameworkBundleLocation(frameworkConfig.getFrameworkBundle());
+			}
+			configurationPrepared = true;
 		}
 		List<BundleInfo> bundles = frameworkConfig.getBundles();
 
-		BundleResolver resolverChain = ResolverFactory.createResolverChain(options);
-
-		// resolve fwk bundle ...
-		if (!resolverChain.resolve(frameworkConfig.getFrameworkBundle())) {
-			OgemaLauncher.LOGGER.warning("Error: cannot resolve framework bundle!");
-			return RestartType.EXIT;
-		}
-		if (frameworkConfig instanceof EquinoxConfiguration) {
-			fixEquinoxFrameworkBundleLocation(frameworkConfig.getFrameworkBundle());
+		if (frameworkClassLoader == null) {
+			if (shareFrameworkClassLoader && restartType != RestartType.NEW_CLASSLOADER) {
+				frameworkClassLoader = FrameworkUtil.getSharedFrameworkClassLoader(frameworkConfig.getFrameworkBundle(), baseClassLoader);
+			} else {
+				frameworkClassLoader = FrameworkUtil.addFwkBundleToClasspath(frameworkConfig.getFrameworkBundle(), baseClassLoader);
+				// FIXME required?
+				FrameworkUtil.fixJavaFxClasspath(frameworkClassLoader);
+			}
 		}
-		final URLClassLoader frameworkClassLoader = FrameworkUtil
-				.addFwkBundleToClasspath(frameworkConfig.getFrameworkBundle(), baseClassLoader);
 		Set<BundleInfo> bundlesWithoutDuplicates = new LinkedHashSet<>();
 		boolean frameworkClean = !FrameworkUtil.frameworkStorageExists(frameworkConfig);
 		clean |= frameworkClean;
 		boolean installOrUpdateBundles = clean || updateBundles;
 		if (installOrUpdateBundles || isBuildSwitchSet || createDeploymentPackage) {
 			// resolve bundles
-			List<BundleInfo> missingBundles = resolverChain.resolveBundles(bundles);
+			List<BundleInfo> missingBundles = getResolverChain(options).resolveBundles(bundles);
 			logMissingBundles(missingBundles);
 
 			// remove duplicates:
 			bundlesWithoutDuplicates.addAll(bundles);
 			bundlesWithoutDuplicates.removeAll(missingBundles);
 		}
+		phaseStart = metrics.phaseDone("resolve", phaseStart);
+		LogContext.setPhase("prepare");
 		// bundles are resolved -> if build flag is set start build process
 		if (isBuildSwitchSet) {
 			bundlesWithoutDuplicates.add(frameworkConfig.getFrameworkBundle());
@@ -429,15 +519,12 @@ public class OgemaFramework {
 		}
 		if (createDeploymentPackage) {
 			boolean tagSnapshots = options.hasOption(KnownProgOptions.TAG_SNAPSHOTS.getSwitch());
-			String isDiffStr = configuration.getOptions().getOptionValue(KnownProgOptions.TAG_SNAPSHOTS.getSwitch());
-			boolean isDiff = false;
-			try {
-				isDiff = Boolean.parseBoolean(isDiffStr);
-			} catch (Exception ignore) {
-			}
+			final Map<String, String> fwkProps = frameworkConfig.getFrameworkProperties();
+			// a fix-pack is built if and only if a base package is configured
+			final boolean isDiff = fwkProps.get(DeploymentPackageBuilder.BASE_PACKAGE) != null;
 
 			try {
-				String result = DeploymentPackageBuilder.build(bundlesWithoutDuplicates, tagSnapshots, isDiff)
+				String result = DeploymentPackageBuilder.build(bundlesWithoutDuplicates, tagSnapshots, isDiff, fwkProps)
 						.toString();
 				OgemaLauncher.LOGGER.log(Level.INFO, "Deployment package available: " + result);
 			} catch (Exception e) {
@@ -450,15 +537,19 @@ public class OgemaFramework {
 		Map<String, List<BundleInfo>> bundlesToInstall = initBundlesToInstall(bundlesWithoutDuplicates);
 		FrameworkUtil.doCleanStart(clean, frameworkConfig, frameworkConfig.getDeleteList());
 
-		if (!FrameworkUtil.createOgemaUserdataPath()) {
+		if (scopeUserdataPath) {
+			FrameworkUtil.scopeOgemaUserdataPath(frameworkConfig);
+		} else {
+			// published as system properties, as expected by bundles reading them from there
+			FrameworkUtil.getOgemaUserdataPath();
+		}
+		if (!FrameworkUtil.createOgemaUserdataPath(frameworkConfig)) {
 			OgemaLauncher.LOGGER.warning("Unable to create OGEMA userdata path!");
 		}
 
 		if (!FrameworkUtil.createFrameworkStorage(frameworkConfig)) {
 			OgemaLauncher.LOGGER.warning("Unable to create framework storage!");
 		}
-		// FIXME required?
-		FrameworkUtil.fixJavaFxClasspath(frameworkClassLoader);
 		boolean enableSecurity = configuration.getOptions().hasOption(KnownProgOptions.SECURITY.getLongSwitch());
 		if (enableSecurity) {
 			if (System.getSecurityManager() != null) // allows to start multiple framework instances with enabled security (for tests)
@@ -466,16 +557,101 @@ public class OgemaFramework {
 			frameworkConfig.addFrameworkProperty(Constants.FRAMEWORK_SECURITY, Constants.FRAMEWORK_SECURITY_OSGI);
 		}
 		frameworkConfig.addFrameworkProperty(ConfigurationConstants.OGEMA_SECURITY, String.valueOf(enableSecurity));
-		if (framework == null)
-			framework = FrameworkUtil.getFramework(frameworkConfig.getFrameworkProperties(),
-					frameworkConfig.getFrameworkBundle(), frameworkClassLoader);
-		if (framework == null) // Java 9 quick fix (probably not required any more)
-			framework = FrameworkUtil.getFrameworkImpl(frameworkConfig.getFrameworkProperties(),
+		final boolean profileSecurity = enableSecurity && options.hasOption(KnownProgOptions.SECURITY_PROFILE.getLongSwitch());
+		if (!enableSecurity && options.hasOption(KnownProgOptions.SECURITY_PROFILE.getLongSwitch()))
+			OgemaLauncher.LOGGER.warning("Permission checks are only profiled with --security");
+		final File frameworkStorage = FrameworkUtil.getFrameworkStorage(frameworkConfig);
+		final LaunchFingerprint fingerprint = LaunchFingerprint.create(bundles, frameworkConfig.getFrameworkProperties(), frameworkStorage);
+		boolean partialUpdate = false;
+		// bundles whose start level is set although they are not installed or updated
+		final Set<BundleInfo> startLevelOnly = new LinkedHashSet<>();
+		// restart before the launch has completed, the journal remains
+		final boolean continued = journal != null;
+		if (continued) {
+			journal.close();
+			journal = null;
+		}
+		boolean recovering = false;
+		if (afterRollback && !installOrUpdateBundles) {
+			OgemaLauncher.LOGGER.warning("Starting on the restored framework storage,"
+					+ " configuration changes since the snapshot are applied on the next launch");
+		} else if (!installOrUpdateBundles) {
+			final Set<BundleInfo> changed = new LinkedHashSet<>();
+			final LaunchFingerprint previous = LaunchFingerprint.load(frameworkStorage);
+			if (previous != null) {
+				if (fingerprint.propertiesChanged(previous)) {
+					OgemaLauncher.LOGGER.fine("Framework properties changed since the last launch");
+				}
+				final List<String> removed = fingerprint.getRemovedBundles(previous);
+				if (!removed.isEmpty()) {
+					OgemaLauncher.LOGGER.info("Bundles removed from the configuration since the last launch (not uninstalled): " + removed);
+				}
+				changed.addAll(fingerprint.getChangedBundles(previous));
+				if (!changed.isEmpty()) {
+					OgemaLauncher.LOGGER.info("Configuration changed since the last launch, updating " + changed.size() + " bundles");
+				}
+				// no update, refresh or wait required for these
+				startLevelOnly.addAll(fingerprint.getStartChangedBundles(previous));
+				if (!startLevelOnly.isEmpty()) {
+					OgemaLauncher.LOGGER.info("Start attributes changed since the last launch for " + startLevelOnly.size() + " bundles");
+				}
+			}
+			final LaunchJournal.Recovery recovery = LaunchJournal.recover(frameworkStorage);
+			if (recovery != null) {
+				final List<BundleInfo> incomplete = recovery.getIncomplete(bundles);
+				final List<BundleInfo> startLevelsPending = recovery.getStartLevelsPending(bundles);
+				startLevelOnly.addAll(startLevelsPending);
+				OgemaLauncher.LOGGER.log(continued ? Level.FINE : Level.WARNING,
+						(continued ? "Continuing the launch after the framework restart, " : "The previous launch has been interrupted, ")
+						+ "repeating " + incomplete.size() + " incomplete bundle operations"
+						+ (startLevelsPending.isEmpty() ? "" : " and the start level assignment"));
+				changed.addAll(incomplete);
+				recovering = true;
+				startLevelOnly.removeAll(changed);
+			}
+			if (!changed.isEmpty() || !startLevelOnly.isEmpty()) {
+				final List<BundleInfo> toResolve = new ArrayList<>(changed);
+				toResolve.addAll(startLevelOnly);
+				List<BundleInfo> missingBundles = getResolverChain(options).resolveBundles(toResolve);
+				logMissingBundles(missingBundles);
+				changed.removeAll(missingBundles);
+				startLevelOnly.removeAll(missingBundles);
+				bundlesWithoutDuplicates.addAll(changed);
+				bundlesToInstall = initBundlesToInstall(bundlesWithoutDuplicates);
+				partialUpdate = !bundlesToInstall.isEmpty() || !startLevelOnly.isEmpty();
+			}
+		}
+		if (installOrUpdateBundles || partialUpdate) {
+			// a storage in an unknown state must not replace the last good snapshot
+			if (!clean && !recovering) {
+				snapshot = new StorageSnapshot(frameworkStorage);
+				if (!snapshot.capture())
+					snapshot = null;
+			}
+			// only a completed launch gets a fingerprint
+			LaunchFingerprint.invalidate(frameworkStorage);
+			final Set<BundleInfo> planned = new LinkedHashSet<>(bundlesWithoutDuplicates);
+			planned.addAll(startLevelOnly);
+			journal = LaunchJournal.begin(frameworkStorage, planned);
+			if (journal != null)
+				journal.done(startLevelOnly);
+		}
+		if (framework == null) {
+			// the effective properties are only assembled here, when they are handed to the framework
+			final Map<String, String> frameworkProperties = frameworkConfig.getEffectiveFrameworkProperties();
+			framework = FrameworkUtil.getFramework(frameworkProperties,
 					frameworkConfig.getFrameworkBundle(), frameworkClassLoader);
+			if (framework == null) // Java 9 quick fix (probably not required any more)
+				framework = FrameworkUtil.getFrameworkImpl(frameworkProperties,
+						frameworkConfig.getFrameworkBundle(), frameworkClassLoader);
+			releaseRetiredFramework();
+		}
 		if (framework == null) {
 			OgemaLauncher.LOGGER.warning("No OSGi FrameworkFactory on classpath! Exiting ...");
 			return RestartType.EXIT;
 		}
+		phaseStart = metrics.phaseDone("prepare", phaseStart);
+		LogContext.setPhase("init");
 		try {
 			if (shutdownHook == null) {
 				installShutdownHook();
@@ -489,10 +665,15 @@ public class OgemaFramework {
 			// bundle update s fail -> so better wait here
 			// note: it is not possible to wait for the refresh check by means of a listener
 			// or anything
-			if (updateBundles) {
+			if (updateBundles || (partialUpdate && !bundlesToInstall.isEmpty())) {
 				Thread.sleep(5000);
 			}
+			if (profileSecurity) // the framework has installed its security manager now
+				PermissionCheckProfiler.getInstance().install();
 			framework.getBundleContext().addFrameworkListener(frameworkListener);
+			metrics.setFramework(framework);
+			phaseStart = metrics.phaseDone("init", phaseStart);
+			LogContext.setPhase("install");
 			OgemaLauncher.LOGGER.log(Level.INFO,
 					"Actual framework bundle version is " + framework.getBundleContext().getBundle(0).getVersion(),
 					(Throwable) null);
@@ -525,6 +706,23 @@ public class OgemaFramework {
 				}
 				highestStartLevel = startBundles(
 						getBundlesWithStartLevels(bundlesToInstall, getBundlesFromFrameworkStable()));
+				startLevelsDone();
+			} else if (partialUpdate) {
+				if (!bundlesToInstall.isEmpty()) {
+					installOrUpdateBundles(initCurrInstalledBundles(installedBundles), bundlesToInstall, framework, strictMode);
+					final RestartType restart = refreshBundles();
+					if (restart != null) {
+						return restart;
+					}
+				}
+				if (!startLevelOnly.isEmpty()) {
+					final Set<BundleInfo> all = new LinkedHashSet<>(bundlesWithoutDuplicates);
+					all.addAll(startLevelOnly);
+					bundlesToInstall = initBundlesToInstall(all);
+				}
+				startBundles(getBundlesWithStartLevels(bundlesToInstall, getBundlesFromFrameworkStable()));
+				startLevelsDone();
+				highestStartLevel = getStartLevel(getBundlesFromFramework());
 			} else {
 				FrameworkWiring fw = framework.adapt(FrameworkWiring.class);
 				if (!fw.resolveBundles(Arrays.asList(installedBundles))) {
@@ -534,6 +732,8 @@ public class OgemaFramework {
 				}
 				highestStartLevel = getStartLevel(installedBundles);
 			}
+			phaseStart = metrics.phaseDone("install", phaseStart);
+			LogContext.setPhase("start");
 			if (startLevelSwitchSet) {
 				String startlevel = configuration.getOptions().getOptionValue(KnownProgOptions.STARTLEVEL.getSwitch());
 				try {
@@ -553,11 +753,31 @@ public class OgemaFramework {
 			// bundles at the initial start if clean flag isn't set.
 			startFramework();
 			setFrameworkStartLevel(highestStartLevel + 1);
+			metrics.phaseDone("start", phaseStart);
+			LogContext.setPhase("running");
+			metrics.phaseDone("total", launchStart);
+			if (restartType != null && stoppedAt != 0) {
+				// launcher overhead from the framework stop until it is running again
+				OgemaLauncher.LOGGER.info(String.format("Framework restarted (%s) in %d ms", restartType,
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stoppedAt)));
+				metrics.phaseDone("restart", stoppedAt);
+			}
+			// the restored fingerprint lets the next launch retry the update
+			if (!afterRollback || installOrUpdateBundles)
+				fingerprint.store();
+			snapshot = null;
+			if (journal != null) {
+				journal.commit();
+				journal = null;
+			}
+			if (CdsArchiveGenerator.isTrainingRun()) {
+				OgemaLauncher.LOGGER.info("CDS training launch complete, stopping the framework");
+				framework.stop();
+			}
 			// release all references to bundles
 			bundlesToInstall.clear();
 			bundlesWithoutDuplicates.clear();
 			installedBundles = null;
-			resolverChain = null;
 			return waitForStop();
 		} catch (SecurityException e) {
 			OgemaLauncher.LOGGER.log(Level.SEVERE, "Security Exception in OGEMA launcher " + e, e);
@@ -566,8 +786,51 @@ public class OgemaFramework {
 		} catch (InterruptedException ie) {
 			OgemaLauncher.LOGGER.log(Level.SEVERE, "OGEMA launcher interrupted" + ie, ie);
 			Thread.currentThread().interrupt();
+			return RestartType.EXIT; // the journal remains for the next start
+		} catch (RuntimeException e) {
+			if (snapshot == null)
+				throw e;
+			OgemaLauncher.LOGGER.log(Level.SEVERE, "Launch failed: " + e, e);
 		}
-		return RestartType.EXIT;
+		return rollbackFailedUpdate();
+	}
+
+	/**
+	 * If a launch updating the framework storage fails, the storage is restored from the
+	 * snapshot taken before, and the framework restarted on it.
+	 */
+	private RestartType rollbackFailedUpdate() {
+		final StorageSnapshot snapshot = this.snapshot;
+		this.snapshot = null;
+		if (snapshot == null)
+			return RestartType.EXIT;
+		OgemaLauncher.LOGGER.warning("Update failed, rolling back the framework storage");
+		try {
+			framework.stop();
+			framework.waitForStop(60000);
+		} catch (BundleException | InterruptedException | RuntimeException e) {
+			OgemaLauncher.LOGGER.severe("Could not stop the framework for the rollback: " + e);
+			return RestartType.EXIT;
+		}
+		if (journal != null) {
+			journal.close();
+			journal = null;
+		}
+		rolledBack = restoreSnapshot(FrameworkUtil.getFrameworkStorage(configuration.getFrameworkConfig()));
+		return rolledBack ? RestartType.RESTART : RestartType.EXIT;
+	}
+
+	private static boolean restoreSnapshot(File storage) {
+		final StorageSnapshot snapshot = new StorageSnapshot(storage);
+		if (!snapshot.exists()) {
+			OgemaLauncher.LOGGER.warning("No snapshot of the framework storage " + storage + " available");
+			return false;
+		}
+		if (!snapshot.restore())
+			return false;
+		// the fingerprint has been restored with the snapshot, the journal describes the replaced state
+		LaunchJournal.discard(storage);
+		return true;
 	}
 
 	private static int getStartLevel(Bundle[] bundles) {
@@ -586,6 +849,9 @@ public class OgemaFramework {
 	// because one gets a reduced number of bundles from getBundlesFromFramework
 	// immediately after the refresh operation
 	private Bundle[] getBundlesFromFrameworkStable() throws InterruptedException {
+		// other frameworks return the complete list right away
+		if (!(configuration.getFrameworkConfig() instanceof KnopflerfishConfiguration))
+			return getBundlesFromFramework();
 		Bundle[] bundles;
 		Bundle[] check;
 		do {
@@ -671,7 +937,7 @@ public class OgemaFramework {
 
 		// check if there are more bundles to install
 		for (BundleInfo info : tmpToInstall) {
-			OgemaLauncher.LOGGER.finer("installing bundle: " + info.getPreferredLocation());
+			OgemaLauncher.LOGGER.log(Level.FINER, "installing bundle: {0}", info.getPreferredLocation());
 			context.installBundle(info.getPreferredLocation().toString());
 		}
 	}
@@ -812,6 +1078,7 @@ public class OgemaFramework {
 				currInstalledBundles);
 		BundleContext fwkContext = framework.getBundleContext();
 		for (String symbolicName : bundlesToInstall.keySet()) {
+			LogContext.setBundle(symbolicName);
 			for (BundleInfo bi : bundlesToInstall.get(symbolicName)) {
 				try {
 					if (tmpInstalledBundlesNotInConfig.containsKey(symbolicName)) {
@@ -825,19 +1092,20 @@ public class OgemaFramework {
 						tmpInstalledBundlesNotInConfig.remove(symbolicName);
 					} else {
 						// not installed yet:
-						OgemaLauncher.LOGGER.finer("installing bundle: " + bi.getPreferredLocation());
+						OgemaLauncher.LOGGER.log(Level.FINER, "installing bundle: {0}", bi.getPreferredLocation());
                         URI preferedUri = bi.getPreferredLocation();
                         String installUrlString = preferedUri.toString();
                         if (configuration.getOptions().hasOption(LauncherConstants.KnownProgOptions.REFERENCE.getLongSwitch())) {
                             if (preferedUri.getScheme().equalsIgnoreCase("file")) {
                                 installUrlString = "reference:" + preferedUri.toString();
-                                OgemaLauncher.LOGGER.finer("installing bundle as reference: " + installUrlString);
+                                OgemaLauncher.LOGGER.log(Level.FINER, "installing bundle as reference: {0}", installUrlString);
                             }
                         }
 						fwkContext.installBundle(installUrlString);
 
 					}
 					// ??
+					journalDone(bi);
 				} catch (IllegalStateException e) {
 					OgemaLauncher.LOGGER.warning("Error initializing bundle " + bi + ": " + e.getLocalizedMessage());
 					if (strictMode)
@@ -847,9 +1115,11 @@ public class OgemaFramework {
 					OgemaLauncher.LOGGER.warning("Error initializing bundle " + bi + ": " + e.getLocalizedMessage());
 					if (strictMode)
 						throw new RuntimeException("Error while initializing the framework: ", e);
+					journalDone(bi); // would fail again
 				}
 			}
 		}
+		LogContext.setBundle(null);
 
 		List<Bundle> installedBundlesNotInConfig = new ArrayList<>();
 		// those bundles left in tmpInstalledBundlesNotInConfig are not in config file
@@ -863,6 +1133,16 @@ public class OgemaFramework {
 		return installedBundlesNotInConfig;
 	}
 
+	private void journalDone(BundleInfo bi) {
+		if (journal != null)
+			journal.done(Collections.singletonList(bi));
+	}
+
+	private void startLevelsDone() {
+		if (journal != null)
+			journal.startLevelsDone();
+	}
+
 	private void installSecurity(Framework framework, String policyFileName) throws IOException {
 		ServiceReference<ConditionalPermissionAdmin> srCPA = framework.getBundleContext()
 				.getServiceReference(ConditionalPermissionAdmin.class);
@@ -876,55 +1156,49 @@ public class OgemaFramework {
 				return;
 			}
 
-			List<ConditionalPermissionInfo> perms = cpu.getConditionalPermissionInfos();
-
-			Map<String, ConditionalPermissionInfo> existingPerms = new HashMap<>();
-			if (!perms.isEmpty()) {
+			final List<ConditionalPermissionInfo> perms = cpu.getConditionalPermissionInfos();
+			if (!perms.isEmpty() && OgemaLauncher.LOGGER.isLoggable(Level.FINE)) {
 				OgemaLauncher.LOGGER.fine("existing permissions: ");
 				for (ConditionalPermissionInfo cpi : perms) {
-					existingPerms.put(cpi.getName(), cpi);
 					OgemaLauncher.LOGGER.fine(cpi.toString());
 				}
 			}
 
-			FileReader fr = new FileReader(policyFileName);
-			BufferedReader in = null;
-			try {
-				in = new BufferedReader(fr);
-				StringBuilder policy = new StringBuilder();
-				for (String line = in.readLine(); line != null; line = in.readLine()) {
-					if (line.trim().startsWith("#")) {
-						continue;
-					}
-					// OGEMA2 user rights proxy stuff
-					line = line.replaceFirst("(.*userName)[ \t]*\"([a-zA-Z_0-9]*)\"",
-							"$1 \"file:./ogema/users/$2/urp$2\"");
-					line = line.replaceFirst("(.*)userName(.*)",
-							"$1org.osgi.service.condpermadmin.BundleLocationCondition$2");
-
-					policy.append(line);
-					if (line.contains("}")) {
-						ConditionalPermissionInfo cpi = cpa.newConditionalPermissionInfo(policy.toString());
-						if (existingPerms.containsKey(cpi.getName())) {
-							perms.remove(existingPerms.get(cpi.getName()));
-							OgemaLauncher.LOGGER.log(Level.FINE, "replacing/updating permission {0}", cpi.getName());
-						}
-						perms.add(cpi);
-						policy = new StringBuilder();
-					}
-				}
-				cpu.commit();
+			final List<String> policies = PolicyCompiler.compile(new File(policyFileName));
+			final List<ConditionalPermissionInfo> newPerms = new ArrayList<>(policies.size());
+			final Set<String> names = new HashSet<>();
+			for (String policy : policies) {
+				final ConditionalPermissionInfo cpi = cpa.newConditionalPermissionInfo(policy);
+				newPerms.add(cpi);
+				if (cpi.getName() != null)
+					names.add(cpi.getName());
+			}
+			// replaced permissions are moved to the end, in the order of the policy file
+			final List<ConditionalPermissionInfo> result = new ArrayList<>(perms.size() + newPerms.size());
+			for (ConditionalPermissionInfo cpi : perms) {
+				if (cpi.getName() != null && names.contains(cpi.getName()))
+					OgemaLauncher.LOGGER.log(Level.FINE, "replacing/updating permission {0}", cpi.getName());
+				else
+					result.add(cpi);
+			}
+			result.addAll(newPerms);
+			if (isEncodedEqual(perms, result)) {
+				OgemaLauncher.LOGGER.fine("permissions unchanged.");
+				return;
+			}
+			perms.clear();
+			perms.addAll(result);
+			if (!cpu.commit()) {
+				OgemaLauncher.LOGGER.warning("Permissions have been modified concurrently, policy file not applied");
+				return;
+			}
+			if (OgemaLauncher.LOGGER.isLoggable(Level.FINE)) {
 				OgemaLauncher.LOGGER.fine("new permissions: ");
 				for (ConditionalPermissionInfo cpi : perms) {
 					OgemaLauncher.LOGGER.fine(cpi.toString());
 				}
-				OgemaLauncher.LOGGER.fine("permissions update complete.");
-			} finally {
-				fr.close();
-				if (in != null) {
-					in.close();
-				}
 			}
+			OgemaLauncher.LOGGER.fine("permissions update complete.");
 		} else {
 			OgemaLauncher.LOGGER.fine("could not get a service reference for ConditionalPermissionAdmin"); // not a
 																											// problem,
@@ -935,6 +1209,16 @@ public class OgemaFramework {
 		}
 	}
 
+	private static boolean isEncodedEqual(List<ConditionalPermissionInfo> a, List<ConditionalPermissionInfo> b) {
+		if (a.size() != b.size())
+			return false;
+		for (int i = 0; i < a.size(); i++) {
+			if (!a.get(i).getEncoded().equals(b.get(i).getEncoded()))
+				return false;
+		}
+		return true;
+	}
+
 	private void logMissingBundles(List<BundleInfo> missingBundles) {
 		if (!missingBundles.isEmpty()) {
 			OgemaLauncher.LOGGER.warning("Still missing the following bundles:");
@@ -958,6 +1242,7 @@ public class OgemaFramework {
 			// that method yet) we will catch the AbstractMethodError from this
 			// method and use PackageAdmin instead:
 			OgemaLauncher.LOGGER.log(Level.FINE, "Starting bundles refreshment");
+			final long refreshStart = System.nanoTime();
 			final AtomicReference<FrameworkEvent> refreshEvent = new AtomicReference<FrameworkEvent>(null);
 //			boolean frameworkUpdate = false;
 			try {
@@ -994,47 +1279,61 @@ public class OgemaFramework {
 							return RestartType.EXIT;
 						}
 					} else {
-						final CountDownLatch latch = new CountDownLatch(1);
-						frameworkWiring.refreshBundles(pending, new FrameworkListener() {
-
-							@Override
-							public void frameworkEvent(FrameworkEvent event) {
-								if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED) {
-									latch.countDown();
-								}
-							}
-
-						});
-						latch.await(1, TimeUnit.MINUTES);
+						final FrameworkLifecycle.Expectation refreshed = lifecycle.expect(FrameworkEvent.PACKAGES_REFRESHED);
+						frameworkWiring.refreshBundles(pending, lifecycle);
+						if (refreshed.await(1, TimeUnit.MINUTES) == null) {
+							OgemaLauncher.LOGGER.warning("Bundle refresh did not finish within 1 minute");
+						}
 					}
 
 				}
 			} catch (AbstractMethodError e) {
 //				frameworkUpdate = true; // no idea, in fact, so to be on the safe side we do wait (anyway, this case
 										// shouldn't be relevant any more)
-				refreshViaPackageAdmin(framework.getBundleContext(), (Arrays.asList(getBundlesFromFramework()))); 
-				Thread.sleep(10000); // ?
+				// PackageAdmin signals the end of the refresh by a framework event
+				final FrameworkLifecycle.Expectation refreshed = lifecycle.expect(FrameworkEvent.PACKAGES_REFRESHED);
+				if (!refreshViaPackageAdmin(framework.getBundleContext(), (Arrays.asList(getBundlesFromFramework())))) {
+					refreshed.cancel();
+				} else if (refreshed.await(refreshTimeout, TimeUnit.MILLISECONDS) == null) {
+					OgemaLauncher.LOGGER.warning("Bundle refresh did not finish within " + refreshTimeout + " ms");
+				}
 			}
 			OgemaLauncher.LOGGER.log(Level.FINE, "Refreshing done");
+			metrics.refreshDone(refreshStart);
 			final FrameworkEvent fe = refreshEvent.get();
 			if (fe == null)
 				return null;
+			stoppedAt = System.nanoTime();
 			switch (fe.getType()) {
 			case FrameworkEvent.STOPPED_BOOTCLASSPATH_MODIFIED:
 				return RestartType.NEW_VM;
 			case 1024: // STOPPED_SYSTEM_REFRESHED
 				return RestartType.NEW_CLASSLOADER;
 			default:
-				checkFrameworkState();
-				try {
-					fwkLock.wait(4 * refreshTimeout);
-				} catch (InterruptedException ignore) {
+				final int state = FrameworkLifecycle.awaitRestart(framework, refreshTimeout);
+				OgemaLauncher.LOGGER.log(Level.FINE, "Finished wait for framework update, state: {0}", FrameworkUtil.getBundleState(state));
+				// if the framework did not restart by itself, it either requires a new classloader
+				// (framework extension updated), or even a fresh VM (bootstrap extension fragment updated)
+				if (state == Bundle.INSTALLED || state == Bundle.RESOLVED) {
+					OgemaLauncher.LOGGER.log(Level.WARNING,
+							"Framework did not recover from refreshing bundles. Trying to start again.");
+					if (System.getSecurityManager() != null	&& System.getSecurityManager() != initialSecurityManager)
+						System.setSecurityManager(initialSecurityManager);
+					return RestartType.RESTART;
 				}
+				addFrameworkListener();
 				return null;
 			}
 		}
 	}
 
+	// the framework listener must be registered again after the framework has restarted itself
+	private void addFrameworkListener() {
+		final BundleContext ctx = framework.getBundleContext();
+		if (ctx != null)
+			ctx.addFrameworkListener(frameworkListener);
+	}
+
 	private final static boolean containsFrameworkBundle(final Collection<Bundle> bundles) {
 		if (bundles == null || bundles.isEmpty())
 			return false;
@@ -1070,15 +1369,17 @@ public class OgemaFramework {
 	 * @param context
 	 * @param c
 	 */
-	private void refreshViaPackageAdmin(BundleContext context, Collection<Bundle> c) {
+	private boolean refreshViaPackageAdmin(BundleContext context, Collection<Bundle> c) {
 		ServiceReference<?> sr = context.getServiceReference(PackageAdmin.class.getName());
 		if (sr != null) {
 			PackageAdmin pa = (PackageAdmin) context.getService(sr);
 			pa.refreshPackages(c.toArray(new Bundle[] {}));
+			return true;
 		} else {
 			// we can't refresh the packages ... print an error msg
 			// and continue:
 			OgemaLauncher.LOGGER.warning("Refresh packages failed!" + " Bundles probably weren't updated properly.");
+			return false;
 		}
 	}
 
@@ -1168,7 +1469,7 @@ public class OgemaFramework {
 	@SuppressWarnings("unused")
 	private void uninstallBundles(List<Bundle> installedBundlesNotInConfig) throws BundleException {
 		for (Bundle b : installedBundlesNotInConfig) {
-			OgemaLauncher.LOGGER.fine("uninstalling bundle: " + b.getLocation());
+			OgemaLauncher.LOGGER.log(Level.FINE, "uninstalling bundle: {0}", b.getLocation());
 			b.uninstall();
 		}
 	}
@@ -1190,18 +1491,14 @@ public class OgemaFramework {
 	private RestartType waitForStop() throws InterruptedException {
 		outer: while (true) {
 			final FrameworkEvent stopReason = framework.waitForStop(0);
+			stoppedAt = System.nanoTime();
 			OgemaLauncher.LOGGER.fine("framework stopped: " + stopReason.getType());
 			// the latter case is STOPPED_SYSTEM_REFRESHED, introduced in a recent OSGi
 			// version
 			switch (stopReason.getType()) {
 			case FrameworkEvent.STOPPED_UPDATE:
-				final long maxWait = System.currentTimeMillis() + 10000;
-				while (framework.getState() != Bundle.ACTIVE && framework.getState() != Bundle.STARTING
-						&& System.currentTimeMillis() < maxWait) {
-					Thread.sleep(500);
-				}
 				// if framework doesn't restart within 10s, try to force it
-				switch (framework.getState()) {
+				switch (FrameworkLifecycle.awaitRestart(framework, 10000)) {
 				case Bundle.STOPPING:
 					// wait for stop
 					final FrameworkEvent ev = framework.waitForStop(60000);
@@ -1214,7 +1511,9 @@ public class OgemaFramework {
 				case Bundle.INSTALLED:
 					return RestartType.RESTART; // restart framework
 				default:
-					continue outer; // framework has restarted itself, continue waiting for next stop operation
+					// framework has restarted itself, continue waiting for next stop operation
+					addFrameworkListener();
+					continue outer;
 				}
 			case FrameworkEvent.STOPPED_BOOTCLASSPATH_MODIFIED:
 				return RestartType.NEW_VM;
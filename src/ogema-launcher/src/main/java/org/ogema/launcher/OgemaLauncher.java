@@ -12,18 +12,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.channels.ClosedChannelException;
-import java.nio.channels.FileLock;
-import java.nio.channels.OverlappingFileLockException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.Properties;
 import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
@@ -36,8 +30,15 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.ogema.launcher.LauncherConstants.KnownProgOptions;
+import org.ogema.launcher.config.FrameworkConfiguration;
 import org.ogema.launcher.config.LauncherConfiguration;
 import org.ogema.launcher.exceptions.FrameworkConfigurationException;
+import org.ogema.launcher.metrics.LauncherMetrics;
+import org.ogema.launcher.util.AsyncLogHandler;
+import org.ogema.launcher.util.CdsArchiveGenerator;
+import org.ogema.launcher.util.FrameworkUtil;
+import org.ogema.launcher.util.JsonLogFormatter;
+import org.ogema.launcher.util.StorageLock;
 
 /**
  * Main class that initializes the configuration and is launching the framework.
@@ -54,6 +55,12 @@ import org.ogema.launcher.exceptions.FrameworkConfigurationException;
  * <li>-o,--offline</li>
  * <li>-p,--properties <properties file(s)></li>
  * <li>-v,--verbose</li>
+ * <li>-vo,--validate-only</li>
+ * <li>-cds,--generate-cds [archive file]</li>
+ * <li>-m,--metrics [port]</li>
+ * <li>-inst,--instances <instances file></li>
+ * <li>-rollback,--rollback</li>
+ * <li>-secprof,--security-profile</li>
  * <li>-w,--workspaceloc <workspace location></li>
  * </ul>
  *
@@ -73,6 +80,10 @@ public class OgemaLauncher {
                 printHelp(options);
                 return;
             }
+            if (cmdLine.hasOption(KnownProgOptions.GENERATE_CDS.getSwitch())) {
+                // the training launch runs in a child VM
+                System.exit(CdsArchiveGenerator.generate(args, cmdLine.getOptionValue(KnownProgOptions.GENERATE_CDS.getSwitch())));
+            }
 
             Runnable r = new Runnable() {
 
@@ -82,6 +93,9 @@ public class OgemaLauncher {
                         new OgemaLauncher(cmdLine, args).run();
                     } catch (FrameworkConfigurationException | ParseException | IOException e) {
                         LOGGER.severe("Error: " + e.getLocalizedMessage());
+                        if (cmdLine.hasOption(KnownProgOptions.VALIDATE_ONLY.getSwitch())) {
+                            System.exit(1);
+                        }
                     }
                 }
             };
@@ -104,7 +118,7 @@ public class OgemaLauncher {
         formatter.printHelp("java -jar ogema-launcher-"+getVersion()+".jar", options, true);
     }
 
-    private static CommandLine parseOptions(Options options, String[] args) throws ParseException {
+    static CommandLine parseOptions(Options options, String[] args) throws ParseException {
     	// Recommended as replacement for the deprecated Gnu parser, but 
     	// not working - it interprets the -ub option as a filename for the properties file
 //        CommandLineParser parser = new DefaultParser(); 
@@ -117,7 +131,9 @@ public class OgemaLauncher {
         if (!System.getProperties().containsKey("java.util.logging.SimpleFormatter.format")) {
             System.setProperty("java.util.logging.SimpleFormatter.format", "%5$s%n");
         }
-        ConsoleHandler handler = new ConsoleHandler();
+        // synchronous output only on request, e.g. for debugging the launcher itself
+        Handler handler = Boolean.parseBoolean(System.getProperty(LauncherConstants.LOG_ASYNC_PROPERTY, "true"))
+                ? new AsyncLogHandler(System.err) : new ConsoleHandler();
 
         if (System.getProperties().getProperty("os.name")
                 .toLowerCase().startsWith("window")) {
@@ -128,7 +144,8 @@ public class OgemaLauncher {
             }
         }
         handler.setLevel(Level.ALL);
-        handler.setFormatter(new SimpleFormatter());
+        handler.setFormatter("json".equalsIgnoreCase(System.getProperty(LauncherConstants.LOG_FORMAT_PROPERTY))
+                ? new JsonLogFormatter() : new SimpleFormatter());
 
         Logger l = Logger.getLogger("launcher");
         l.setUseParentHandlers(false);
@@ -138,7 +155,7 @@ public class OgemaLauncher {
         return l;
     }
 
-    private static Options setupOptions() {
+    static Options setupOptions() {
         Options options = new Options();
         for (KnownProgOptions progOpt : KnownProgOptions.values()) {
             Option opt = new Option(progOpt.getSwitch(), progOpt.getDescription());;
@@ -194,22 +211,39 @@ public class OgemaLauncher {
     }
     
     private void run() throws FrameworkConfigurationException, ParseException, IOException {
+        if (options.hasOption(KnownProgOptions.METRICS.getSwitch())) {
+            enableMetrics(options.getOptionValue(KnownProgOptions.METRICS.getSwitch()));
+        }
+        if (options.hasOption(KnownProgOptions.INSTANCES.getSwitch())) {
+            // each instance has its own configuration, storage and lock
+            try {
+                new InstanceSupervisor(new File(options.getOptionValue(KnownProgOptions.INSTANCES.getSwitch()))).run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.exit(0);
+        }
         LauncherConfiguration configuration = new LauncherConfiguration(options);
+        if (options.hasOption(KnownProgOptions.VALIDATE_ONLY.getSwitch())) {
+            LOGGER.info("Configuration is valid: " + configuration.getFrameworkConfig().getBundles().size() + " bundles");
+            return;
+        }
         final OgemaFramework framework = new OgemaFramework(configuration);
         if (!requiresLock(configuration)) {
         	framework.start(ClassLoader.getSystemClassLoader());
         	return;
         }
-        final Path lockFile = Paths.get(LauncherConstants.LOCK_FILE);
-		if (!Files.exists(lockFile))
-			Files.createFile(lockFile);
-		FileLock lock = null;
-		try (final RandomAccessFile raf = new RandomAccessFile(lockFile.toFile(), "rw")) {
-			lock = raf.getChannel().tryLock();
-			if (lock == null) // locked by another process
-				throw new OverlappingFileLockException();
+        // parallel launches with different framework storages are fine
+        final File storage = FrameworkUtil.getFrameworkStorage(configuration.getFrameworkConfig());
+        try (final StorageLock lock = StorageLock.tryAcquire(storage)) {
+            if (lock == null) {
+                OgemaLauncher.LOGGER.severe("Could not launch the framework, maybe it is already running? Failed to acquire lock on file "
+                        + StorageLock.getLockFile(storage));
+                return;
+            }
 	        while (true) {
 	        	final  RestartType restart = framework.start(ClassLoader.getSystemClassLoader());
+	        	LauncherMetrics.getInstance().restart(restart);
 	        	switch (restart) {
 	        	case NEW_CLASSLOADER:
 	        		System.out.println("Framework terminated with request to restart with a fresh classloader... going to restart now");
@@ -223,19 +257,23 @@ public class OgemaLauncher {
 	        		System.exit(0);
 	        	}
 	        	// removing --clean, --build and -ub options, etc 
-	        	framework.reset(new LauncherConfiguration(getSecondOptions(), configuration.getFrameworkConfig()));
+	        	framework.reset(new LauncherConfiguration(getSecondOptions(), configuration.getFrameworkConfig()), restart);
 	        }
-		} catch (OverlappingFileLockException | ClosedChannelException e) {
-			OgemaLauncher.LOGGER.severe("Could not launch the framework, maybe it is already running? Failed to acquire lock on file " + lockFile);
-        } finally {
-        	if (lock != null) {
-        		try {
-        			lock.release();
-        		} catch (Exception ignore) {}
-        	}
-        }
+		}
     }
     
+    private static void enableMetrics(String port) {
+        Integer p = null;
+        if (port != null) {
+            try {
+                p = Integer.valueOf(port);
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid metrics port " + port + ", metrics are only available via JMX");
+            }
+        }
+        LauncherMetrics.getInstance().enable(p);
+    }
+
     // when the build switch is set we should not block the rundir
     private static boolean requiresLock(final LauncherConfiguration config) {
     	final CommandLine options = config.getOptions();
@@ -311,6 +349,7 @@ public class OgemaLauncher {
             }
         }
         System.getProperties().putAll(properties);
+        FrameworkConfiguration.systemPropertiesChanged();
     }
     
     public static synchronized String getVersion(){
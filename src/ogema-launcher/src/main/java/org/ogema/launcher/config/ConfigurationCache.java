@@ -0,0 +1,297 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.config;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ogema.launcher.BundleInfo;
+import org.ogema.launcher.OgemaLauncher;
+import org.ogema.launcher.exceptions.FrameworkConfigurationException;
+import org.ogema.launcher.util.FileDigest;
+import org.ogema.launcher.util.FrameworkUtil;
+import org.osgi.framework.Version;
+
+/**
+ * Binary cache of the parsed and merged launcher configuration, so that unchanged
+ * configuration files need not be parsed again on each start. The cache is keyed
+ * by a digest over the contents of all configuration files and the few system properties
+ * parsing depends on, see {@link #KEY_PROPERTIES}; each set of configuration files has its own
+ * cache file. Included configuration fragments
+ * are only known after parsing; they are stored with the cache entry together with a digest of
+ * their content, and an entry is only used if all includes still resolve to the same, unchanged files.<br>
+ * External entities referenced from an xml configuration are not covered by the key;
+ * the cache can be disabled by setting the system property {@value #DISABLE_PROPERTY} to false.
+ */
+class ConfigurationCache {
+
+	static final String DISABLE_PROPERTY = "org.ogema.launcher.configcache";
+	private static final String FILE_PREFIX = "config-";
+	private static final String FILE_SUFFIX = ".cache";
+	// relative include specifications resolve against the working directory
+	private static final String[] KEY_PROPERTIES = { "user.dir", "file.encoding" };
+	private static final int MAGIC = 0x4f434643; // "OCFC"
+	private static final int FORMAT_VERSION = 4;
+
+	private final File file;
+	private final byte[] key;
+
+	private ConfigurationCache(File file, byte[] key) {
+		this.file = file;
+		this.key = key;
+	}
+
+	/**
+	 * @param configFiles
+	 * @return
+	 * 		null if caching is disabled or the key cannot be computed
+	 */
+	static ConfigurationCache forFiles(Collection<Path> configFiles) {
+		if (!Boolean.parseBoolean(System.getProperty(DISABLE_PROPERTY, "true")))
+			return null;
+		try {
+			return new ConfigurationCache(getFile(configFiles), computeKey(configFiles));
+		} catch (IOException e) {
+			OgemaLauncher.LOGGER.fine("Configuration cache not available: " + e);
+			return null;
+		}
+	}
+
+	private static byte[] computeKey(Collection<Path> configFiles) throws IOException {
+		final MessageDigest md = FileDigest.sha256();
+		md.update((byte) FORMAT_VERSION);
+		for (Path p : configFiles) {
+			md.update(p.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+			md.update((byte) 0);
+			FileDigest.update(md, p);
+			md.update((byte) 0);
+		}
+		for (String property : KEY_PROPERTIES) {
+			md.update(property.getBytes(StandardCharsets.UTF_8));
+			md.update((byte) '=');
+			md.update(String.valueOf(System.getProperty(property)).getBytes(StandardCharsets.UTF_8));
+			md.update((byte) 0);
+		}
+		return md.digest();
+	}
+
+	private static File getFile(Collection<Path> configFiles) {
+		final StringBuilder sb = new StringBuilder();
+		for (Path p : configFiles) {
+			sb.append(p.toAbsolutePath().normalize()).append(File.pathSeparatorChar);
+		}
+		final String name = FILE_PREFIX + Integer.toHexString(sb.toString().hashCode()) + FILE_SUFFIX;
+		return new File(FrameworkUtil.getLauncherDataDir(), name);
+	}
+
+	/**
+	 * @return
+	 * 		the cached configuration, or null if there is no valid cache entry
+	 */
+	FrameworkConfiguration load() {
+		if (!file.isFile())
+			return null;
+		final long start = System.nanoTime();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()), 8192))) {
+			final FrameworkConfiguration cfg = read(in);
+			if (cfg != null)
+				OgemaLauncher.LOGGER.fine(String.format("read cached configuration, time=%dms", (System.nanoTime() - start) / 1000000));
+			return cfg;
+		} catch (IOException | ReflectiveOperationException | RuntimeException e) {
+			OgemaLauncher.LOGGER.fine("Invalid configuration cache " + file + ": " + e);
+			return null;
+		}
+	}
+
+	private FrameworkConfiguration read(DataInputStream in) throws IOException, ReflectiveOperationException {
+		if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+			return null;
+		final byte[] storedKey = new byte[in.readUnsignedShort()];
+		in.readFully(storedKey);
+		if (!Arrays.equals(key, storedKey))
+			return null;
+		if (!readIncludes(in))
+			return null;
+		final FrameworkConfiguration cfg = (FrameworkConfiguration) Class.forName(in.readUTF()).getDeclaredConstructor().newInstance();
+		if (in.readBoolean())
+			cfg.setFrameworkBundle(readBundle(in));
+		int n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			cfg.addToBundles(readBundle(in));
+		}
+		n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			final String key = in.readUTF();
+			final String value = readNullable(in);
+			if (value != null)
+				cfg.addFrameworkProperty(key, value);
+			else
+				cfg.getFrameworkProperties().remove(key);
+		}
+		n = in.readInt();
+		final List<String> deleteList = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			deleteList.add(in.readUTF());
+		}
+		cfg.setDeleteList(deleteList);
+		return cfg;
+	}
+
+	/*
+	 * Checks that the includes still resolve to the same files, with unchanged content
+	 */
+	private static boolean readIncludes(DataInputStream in) throws IOException {
+		final int n = in.readInt();
+		boolean valid = true;
+		final Map<Path, byte[]> stored = new LinkedHashMap<>();
+		for (int i = 0; i < n; i++) {
+			final String spec = in.readUTF();
+			final int m = in.readInt();
+			final List<Path> files = new ArrayList<>(m);
+			for (int j = 0; j < m; j++) {
+				final Path p = Paths.get(in.readUTF());
+				final byte[] digest = new byte[in.readUnsignedShort()];
+				in.readFully(digest);
+				files.add(p);
+				stored.put(p, digest);
+			}
+			if (valid) {
+				try {
+					valid = files.equals(ConfigurationLoader.expand(spec));
+				} catch (FrameworkConfigurationException e) {
+					valid = false;
+				}
+			}
+		}
+		if (!valid)
+			return false;
+		for (Map.Entry<Path, byte[]> e : stored.entrySet()) {
+			if (!Files.isRegularFile(e.getKey()) || !Arrays.equals(e.getValue(), FileDigest.sha256(e.getKey())))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Store the configuration; must be called with the configuration as parsed,
+	 * before any modifications by the launcher.
+	 * @param cfg
+	 * @param includes
+	 * 		include specifications of the configuration files, with the files they resolved to
+	 */
+	void store(FrameworkConfiguration cfg, Map<String, List<Path>> includes) {
+		try {
+			final ByteArrayOutputStream bout = new ByteArrayOutputStream(8192);
+			final DataOutputStream out = new DataOutputStream(bout);
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeShort(key.length);
+			out.write(key);
+			out.writeInt(includes.size());
+			for (Map.Entry<String, List<Path>> e : includes.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeInt(e.getValue().size());
+				for (Path p : e.getValue()) {
+					final byte[] digest = FileDigest.sha256(p);
+					out.writeUTF(p.toString());
+					out.writeShort(digest.length);
+					out.write(digest);
+				}
+			}
+			out.writeUTF(cfg.getClass().getName());
+			out.writeBoolean(cfg.getFrameworkBundle() != null);
+			if (cfg.getFrameworkBundle() != null)
+				writeBundle(out, cfg.getFrameworkBundle());
+			out.writeInt(cfg.getBundles().size());
+			for (BundleInfo bi : cfg.getBundles()) {
+				writeBundle(out, bi);
+			}
+			// system properties are not part of the configuration layer
+			final Map<String, String> overrides = cfg.getPropertyOverrides();
+			out.writeInt(overrides.size());
+			for (Map.Entry<String, String> e : overrides.entrySet()) {
+				out.writeUTF(e.getKey());
+				writeNullable(out, e.getValue());
+			}
+			out.writeInt(cfg.getDeleteList().size());
+			for (String s : cfg.getDeleteList()) {
+				out.writeUTF(s);
+			}
+			out.flush();
+			final Path target = file.toPath();
+			Files.createDirectories(target.getParent());
+			// unique, launches with the same configuration may store concurrently
+			final Path tmp = Files.createTempFile(target.getParent(), FILE_PREFIX, ".tmp");
+			try {
+				Files.write(tmp, bout.toByteArray());
+				Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		} catch (IOException | RuntimeException e) {
+			OgemaLauncher.LOGGER.fine("Could not write configuration cache " + file + ": " + e);
+		}
+	}
+
+	private static void writeBundle(DataOutputStream out, BundleInfo bi) throws IOException {
+		writeNullable(out, bi.getSymbolicName());
+		writeNullable(out, bi.getVersion() != null ? bi.getVersion().toString() : null);
+		writeNullable(out, bi.getMavenCoords());
+		writeNullable(out, bi.getFileName());
+		writeNullable(out, bi.getBinDir());
+		writeNullable(out, bi.getRemoteLocation() != null ? bi.getRemoteLocation().toString() : null);
+		out.writeInt(bi.getStartLevel());
+		out.writeBoolean(bi.isStart());
+	}
+
+	private static BundleInfo readBundle(DataInputStream in) throws IOException {
+		final BundleInfo bi = new BundleInfo();
+		bi.setSymbolicName(readNullable(in));
+		final String version = readNullable(in);
+		if (version != null)
+			bi.setVersion(new Version(version));
+		bi.setMavenCoords(readNullable(in));
+		bi.setFileName(readNullable(in));
+		bi.setBinDir(readNullable(in));
+		final String remote = readNullable(in);
+		if (remote != null)
+			bi.setRemoteLocation(URI.create(remote));
+		bi.setStartLevel(in.readInt());
+		bi.setStart(in.readBoolean());
+		return bi;
+	}
+
+	private static void writeNullable(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeUTF(value);
+	}
+
+	private static String readNullable(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+}
@@ -8,17 +8,27 @@
  */
 package org.ogema.launcher.config;
 
+import java.util.List;
+
+import org.ogema.launcher.OgemaLauncher;
+
 public class ConfigurationFactory {
+
+	private static final String EQUINOX_SYMBOLIC_NAME = "org.eclipse.osgi";
+	private static final String FELIX_SYMBOLIC_NAME = "org.apache.felix.framework";
+	private static final String KNOPFLERFISH_SYMBOLIC_NAME = "org.knopflerfish.framework";
+
 	/**
 	 * Create a specific {@link FrameworkConfiguration} object for the given framework bundle
-	 * file name or maven coordinates.
+	 * file name or maven coordinates. This is a guess, the framework jar is not available yet
+	 * when the configuration is read; the type is corrected by
+	 * {@link #adapt(FrameworkConfiguration, String)} once the framework bundle has been resolved.
 	 * @param mvnCoordsOrFileName - maven coordinates or file name.
 	 * @return A specific {@link FrameworkConfiguration} object. This method will return a 
 	 * {@link DefaultFrameworkConfiguration} object if the framework bundle cannot be specified by
 	 * the given name.
 	 */
 	public static FrameworkConfiguration createFrameworkConfiguration(String mvnCoordsOrFileName) {
-		// TODO open jar and read symbolic name from manifest ?! 
 		String mvnCoordsLowerCase = mvnCoordsOrFileName.toLowerCase();
 		if(mvnCoordsLowerCase.contains("equinox") || mvnCoordsLowerCase.contains("eclipse")) {
 			return new EquinoxConfiguration();
@@ -31,12 +41,58 @@ public class ConfigurationFactory {
 		return new DefaultFrameworkConfiguration();
 	}
 	
+	/**
+	 * @param cfg
+	 * @param frameworkSymbolicName
+	 * 		bundle symbolic name of the framework jar, may be null
+	 * @return
+	 * 		<code>cfg</code>, if its type matches the framework, otherwise a configuration of the
+	 * 		matching type with the same content
+	 */
+	public static FrameworkConfiguration adapt(final FrameworkConfiguration cfg, final String frameworkSymbolicName) {
+		final FrameworkConfiguration target;
+		if (frameworkSymbolicName == null) {
+			return cfg;
+		} else if (frameworkSymbolicName.equals(EQUINOX_SYMBOLIC_NAME)) {
+			target = cfg instanceof EquinoxConfiguration ? null : new EquinoxConfiguration();
+		} else if (frameworkSymbolicName.equals(FELIX_SYMBOLIC_NAME)) {
+			target = cfg instanceof FelixConfiguration ? null : new FelixConfiguration();
+		} else if (frameworkSymbolicName.equals(KNOPFLERFISH_SYMBOLIC_NAME)) {
+			target = cfg instanceof KnopflerfishConfiguration ? null : new KnopflerfishConfiguration();
+		} else {
+			target = cfg.getClass() == DefaultFrameworkConfiguration.class ? null : new DefaultFrameworkConfiguration();
+		}
+		if (target == null)
+			return cfg;
+		OgemaLauncher.LOGGER.fine("Framework " + frameworkSymbolicName + " detected, using " + target.getClass().getSimpleName());
+		cfg.copyTo(target);
+		return target;
+	}
+
 	public static FrameworkConfiguration merge(final FrameworkConfiguration cfg0, final FrameworkConfiguration cfg1) {
 		final FrameworkConfiguration cfg = (FrameworkConfiguration) cfg0.clone();
-		cfg.addFrameworkProperties(cfg1.getFrameworkProperties());
+		cfg.addFrameworkPropertiesOf(cfg1);
 		cfg.addToBundles(cfg1.getBundles());
 		cfg.getDeleteList().addAll(cfg1.getDeleteList());
 		return cfg;
 	}
+
+	/**
+	 * Merge several configurations into <code>base</code>, in list order; equivalent to
+	 * successive calls to {@link #merge(FrameworkConfiguration, FrameworkConfiguration)},
+	 * but copies the base configuration only once.
+	 * @param base
+	 * @param cfgs
+	 * @return a new configuration object
+	 */
+	public static FrameworkConfiguration merge(final FrameworkConfiguration base, final List<FrameworkConfiguration> cfgs) {
+		final FrameworkConfiguration cfg = (FrameworkConfiguration) base.clone();
+		for (FrameworkConfiguration c : cfgs) {
+			cfg.addFrameworkPropertiesOf(c);
+			cfg.addToBundles(c.getBundles());
+			cfg.getDeleteList().addAll(c.getDeleteList());
+		}
+		return cfg;
+	}
 	
 }
\ No newline at end of file
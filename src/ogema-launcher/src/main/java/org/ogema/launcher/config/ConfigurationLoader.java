@@ -0,0 +1,262 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.config;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+
+import org.ogema.launcher.OgemaLauncher;
+import org.ogema.launcher.config.parser.ConfigurationParser;
+import org.ogema.launcher.exceptions.FrameworkConfigurationException;
+
+/**
+ * Parses a set of configuration files including all configuration fragments they include.
+ * Independent files are parsed in parallel; the results are merged in a fixed order, so the
+ * effective configuration does not depend on the parse order: each file is followed by its
+ * includes (in declaration order, the files matched by a directory or glob include sorted by name),
+ * the top level files are merged in the order given.
+ */
+class ConfigurationLoader {
+
+	private static final String GLOB_CHARS = "*?[{";
+
+	private final ConfigurationParser parser;
+	// include specification -> matching files
+	private final Map<String, List<Path>> includes = Collections.synchronizedMap(new LinkedHashMap<String, List<Path>>());
+
+	ConfigurationLoader(ConfigurationParser parser) {
+		this.parser = parser;
+	}
+
+	/**
+	 * @param files
+	 * 		the top level configuration files, not empty
+	 * @return
+	 * 		the merged configuration
+	 * @throws FrameworkConfigurationException
+	 */
+	FrameworkConfiguration load(Collection<Path> files) throws FrameworkConfigurationException {
+		final List<ParseTask> tasks = new ArrayList<>(files.size());
+		for (Path p : files) {
+			tasks.add(new ParseTask(p, Collections.<Path> emptySet()));
+		}
+		// common case: a single file without includes, does not need the pool
+		if (tasks.size() == 1) {
+			final ParseTask task = tasks.get(0);
+			task.parsed = parseFile(task.file);
+			if (task.parsed.getIncludes().isEmpty())
+				return task.parsed;
+		}
+		// only needed while loading, the launcher does not parse configurations afterwards
+		final ForkJoinPool pool = new ForkJoinPool();
+		try {
+			return pool.invoke(new RecursiveTask<FrameworkConfiguration>() {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected FrameworkConfiguration compute() {
+					return mergeAll(null, tasks);
+				}
+			});
+		} catch (RuntimeException e) {
+			for (Throwable t = e; t != null; t = t.getCause()) {
+				if (t instanceof FrameworkConfigurationException)
+					throw (FrameworkConfigurationException) t;
+			}
+			throw e;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @return
+	 * 		the include specifications encountered by the last {@link #load(Collection)} call,
+	 * 		with the files they resolved to
+	 */
+	Map<String, List<Path>> getIncludes() {
+		synchronized (includes) {
+			return new LinkedHashMap<>(includes);
+		}
+	}
+
+	private FrameworkConfiguration parseFile(Path file) throws FrameworkConfigurationException {
+		final FrameworkConfiguration cfg = parser.parse(file.toFile());
+		if (cfg == null)
+			throw new FrameworkConfigurationException("Unsupported configuration file type: " + file);
+		return cfg;
+	}
+
+	/*
+	 * Must be called from within the pool; base may be null, then the first task provides the base
+	 */
+	private static FrameworkConfiguration mergeAll(FrameworkConfiguration base, List<ParseTask> tasks) {
+		if (tasks.isEmpty())
+			return base;
+		ForkJoinTask.invokeAll(tasks);
+		final List<FrameworkConfiguration> parts = new ArrayList<>(tasks.size());
+		for (ParseTask t : tasks) {
+			parts.add(t.join());
+		}
+		if (base == null)
+			base = parts.remove(0);
+		return parts.isEmpty() ? base : ConfigurationFactory.merge(base, parts);
+	}
+
+	/**
+	 * @param spec
+	 * 		a file, directory or glob pattern; a directory stands for the xml and ini files it contains
+	 * @return
+	 * 		the matching files, sorted by name except for a single file
+	 * @throws FrameworkConfigurationException
+	 * 		if a file or directory include does not exist
+	 */
+	static List<Path> expand(String spec) throws FrameworkConfigurationException {
+		final String normalized = spec.replace('\\', '/');
+		int globIdx = -1;
+		for (int i = 0; i < normalized.length(); i++) {
+			if (GLOB_CHARS.indexOf(normalized.charAt(i)) >= 0) {
+				globIdx = i;
+				break;
+			}
+		}
+		try {
+			if (globIdx < 0) {
+				final Path p = Paths.get(spec);
+				if (Files.isRegularFile(p))
+					return Collections.singletonList(p);
+				if (!Files.isDirectory(p))
+					throw new FrameworkConfigurationException("Included configuration not found: " + spec);
+				final List<Path> result = new ArrayList<>();
+				try (DirectoryStream<Path> ds = Files.newDirectoryStream(p, "*.{xml,ini}")) {
+					for (Path f : ds) {
+						if (Files.isRegularFile(f))
+							result.add(f);
+					}
+				}
+				Collections.sort(result);
+				return result;
+			}
+			final int sep = normalized.lastIndexOf('/', globIdx);
+			final Path base = Paths.get(sep < 0 ? "." : sep == 0 ? "/" : normalized.substring(0, sep));
+			final String pattern = normalized.substring(sep + 1);
+			final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+			// only "**" crosses directory boundaries, otherwise the pattern cannot match below its segment count
+			int maxDepth = Integer.MAX_VALUE;
+			if (!pattern.contains("**")) {
+				maxDepth = 1;
+				for (int i = 0; i < pattern.length(); i++) {
+					if (pattern.charAt(i) == '/')
+						maxDepth++;
+				}
+			}
+			final List<Path> result = new ArrayList<>();
+			if (!Files.isDirectory(base)) {
+				OgemaLauncher.LOGGER.fine("No configuration files match " + spec);
+				return result;
+			}
+			Files.walkFileTree(base, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					if (attrs.isRegularFile() && matcher.matches(base.relativize(file)))
+						result.add(file);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+			Collections.sort(result);
+			return result;
+		} catch (IOException e) {
+			throw new FrameworkConfigurationException("Could not resolve include " + spec, e);
+		}
+	}
+
+	/*
+	 * Carries the checked exception through the fork/join pool
+	 */
+	private static final class TaskException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		TaskException(FrameworkConfigurationException cause) {
+			super(cause);
+		}
+	}
+
+	private final class ParseTask extends RecursiveTask<FrameworkConfiguration> {
+
+		private static final long serialVersionUID = 1L;
+		final Path file;
+		// real paths of the including files, for cycle detection
+		final Set<Path> ancestors;
+		FrameworkConfiguration parsed;
+
+		ParseTask(Path file, Set<Path> ancestors) {
+			this.file = file;
+			this.ancestors = ancestors;
+		}
+
+		@Override
+		protected FrameworkConfiguration compute() {
+			try {
+				final FrameworkConfiguration cfg = parsed != null ? parsed : parseFile(file);
+				if (cfg.getIncludes().isEmpty())
+					return cfg;
+				final Set<Path> path = new HashSet<>(ancestors);
+				path.add(toRealPath(file));
+				final List<ParseTask> tasks = new ArrayList<>();
+				for (String spec : cfg.getIncludes()) {
+					final List<Path> files = expand(spec);
+					includes.put(spec, files);
+					for (Path f : files) {
+						if (path.contains(toRealPath(f)))
+							throw new FrameworkConfigurationException("Cyclic configuration include: " + file + " includes " + f);
+						tasks.add(new ParseTask(f, path));
+					}
+				}
+				OgemaLauncher.LOGGER.log(Level.FINER, "Configuration {0} includes {1} files", new Object[] { file, tasks.size() });
+				return mergeAll(cfg, tasks);
+			} catch (FrameworkConfigurationException e) {
+				throw new TaskException(e);
+			}
+		}
+
+		private Path toRealPath(Path p) throws FrameworkConfigurationException {
+			try {
+				return p.toRealPath();
+			} catch (IOException e) {
+				throw new FrameworkConfigurationException("Cannot read configuration file " + p, e);
+			}
+		}
+	}
+
+}
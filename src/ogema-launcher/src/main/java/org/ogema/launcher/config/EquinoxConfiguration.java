@@ -140,12 +140,12 @@ public class EquinoxConfiguration extends FrameworkConfiguration {
 
 			if(System.getProperty("java.security.auth.login.config") == null) {
 				// set to default:
-				System.setProperty("java.security.auth.login.config", "config/org.eclipse.equinox.console.authentication.config");
+				setSystemProperty("java.security.auth.login.config", "config/org.eclipse.equinox.console.authentication.config");
 			}
 
 			File userdataPath = FrameworkUtil.getOgemaUserdataPath();
-			System.setProperty("org.eclipse.equinox.console.jaas.file", new File(userdataPath, "store").getAbsolutePath());
-			System.setProperty("ssh.server.keystore", new File(userdataPath, "hostkey.ser").getAbsolutePath());
+			setSystemProperty("org.eclipse.equinox.console.jaas.file", new File(userdataPath, "store").getAbsolutePath());
+			setSystemProperty("ssh.server.keystore", new File(userdataPath, "hostkey.ser").getAbsolutePath());
 		}
 	}
 
@@ -11,7 +11,6 @@ package org.ogema.launcher.config;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -23,15 +22,30 @@ public abstract class FrameworkConfiguration implements Cloneable {
 
 	// only used for initializing - chosen a set to remove possible duplicates in config
 	private List<BundleInfo> bundles =	new ArrayList<BundleInfo>();
-	protected Map<String, String> properties = new HashMap<String, String>();
+	/** Configuration properties on top of the system properties, see {@link LayeredProperties} */
+	protected Map<String, String> properties = new LayeredProperties();
 	private List<String> deleteList = new ArrayList<String>();
-    
-    {
-        // pre-load framework properties with system properties
-        for (Map.Entry<Object, Object> e: System.getProperties().entrySet()) {
-            properties.put(e.getKey().toString(), e.getValue().toString());
-        }
-    }
+	// include specifications (file, directory or glob), resolved against the including file
+	private List<String> includes = new ArrayList<String>();
+
+	/**
+	 * Sets a system property, and makes it visible to the framework properties of all
+	 * configurations. The launcher must set system properties via this method or call
+	 * {@link #systemPropertiesChanged()}.
+	 * @param key
+	 * @param value
+	 */
+	public static void setSystemProperty(String key, String value) {
+		System.setProperty(key, value);
+		LayeredProperties.systemPropertiesChanged();
+	}
+
+	/**
+	 * The system properties have been modified by the launcher, see {@link #setSystemProperty(String, String)}.
+	 */
+	public static void systemPropertiesChanged() {
+		LayeredProperties.systemPropertiesChanged();
+	}
 
 	public BundleInfo getFrameworkBundle() {
 		return frameworkBundle;
@@ -81,6 +95,32 @@ public abstract class FrameworkConfiguration implements Cloneable {
 		this.properties.putAll(props);
 	}
 
+	/**
+	 * Add the properties set by another configuration, on top of the properties
+	 * of this one. System properties are not copied.
+	 * @param other
+	 */
+	void addFrameworkPropertiesOf(FrameworkConfiguration other) {
+		((LayeredProperties) properties).putOverrides((LayeredProperties) other.properties);
+	}
+
+	/**
+	 * @return the properties set by the configuration, excluding those inherited
+	 * from the system properties; unmodifiable. A null value means that the system 
+	 * property of the same name has been removed.
+	 */
+	Map<String, String> getPropertyOverrides() {
+		return ((LayeredProperties) properties).getOverrides();
+	}
+
+	/**
+	 * The framework properties, to be passed to the framework factory. 
+	 * @return a new map containing the system properties and the configuration properties
+	 */
+	public Map<String, String> getEffectiveFrameworkProperties() {
+		return ((LayeredProperties) properties).materialize();
+	}
+
 	/**
 	 * Get all properties that were read from the configuration file,
 	 * except the osgi.bundles property (use {@link #getBundles() instead}.
@@ -119,6 +159,19 @@ public abstract class FrameworkConfiguration implements Cloneable {
 		this.deleteList.addAll(deleteList);
 	}
 
+	/**
+	 * @return the files, directories or glob patterns included by the configuration file this
+	 * configuration has been read from; these are expanded and merged when the launcher
+	 * configuration is loaded
+	 */
+	public List<String> getIncludes() {
+		return includes;
+	}
+
+	public void addInclude(String include) {
+		includes.add(include);
+	}
+
 	/**
 	 * Differs from every OSGi implementation. Set the appropriate property
 	 * to activate the build in console.
@@ -127,6 +180,18 @@ public abstract class FrameworkConfiguration implements Cloneable {
 	 */
 	public abstract void activateOsgiBuiltInConsole(String port);
 	
+	/**
+	 * Copy the configuration state to a configuration of another type
+	 * @param target
+	 */
+	void copyTo(FrameworkConfiguration target) {
+		target.frameworkBundle = frameworkBundle;
+		target.bundles = new ArrayList<>(bundles);
+		target.deleteList = new ArrayList<>(deleteList);
+		target.includes = new ArrayList<>(includes);
+		target.properties = ((LayeredProperties) properties).copy();
+	}
+
 	@Override
 	protected Object clone() {
 		final FrameworkConfiguration cfg;
@@ -137,7 +202,8 @@ public abstract class FrameworkConfiguration implements Cloneable {
 		}
 		cfg.bundles = new ArrayList<>(this.bundles);
 		cfg.deleteList = new ArrayList<>(this.deleteList);
-		cfg.properties = new HashMap<>(this.properties);
+		cfg.includes = new ArrayList<>(this.includes);
+		cfg.properties = ((LayeredProperties) this.properties).copy();
 		return cfg;
 	}
 }
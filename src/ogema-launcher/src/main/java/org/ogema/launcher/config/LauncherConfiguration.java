@@ -12,7 +12,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
@@ -25,13 +24,8 @@ import org.ogema.launcher.config.parser.ParserFactory;
 import org.ogema.launcher.exceptions.FrameworkConfigurationException;
 
 public class LauncherConfiguration {
-	/**
-	 * chain of responsibility to support different types of 
-	 * configuration (xml, ini, yaml ...)
-	 */
-	private final ConfigurationParser configParser = initConfigParsers();
 	/** Configuration properties for the framework - differs from every implementation (felix, equinox, etc.) */
-	private final FrameworkConfiguration frameworkConfig;
+	private FrameworkConfiguration frameworkConfig;
 	private final CommandLine options;
 
 	public LauncherConfiguration(CommandLine options) throws FrameworkConfigurationException {
@@ -43,16 +37,27 @@ public class LauncherConfiguration {
 		if (config == null) {
 			Set<Path> cfgFile = resolveCfgFile();
 			if (!cfgFile.isEmpty()) {
-				final Iterator<Path> it = cfgFile.iterator();
-				config = configParser.parse(it.next().toFile());
-				while (it.hasNext()) {
-					config = ConfigurationFactory.merge(config, configParser.parse(it.next().toFile()));
+				// validation requires the files to be parsed
+				final ConfigurationCache cache = options.hasOption(KnownProgOptions.VALIDATE_ONLY.getSwitch())
+						? null : ConfigurationCache.forFiles(cfgFile);
+				if (cache != null)
+					config = cache.load();
+				if (config == null) {
+					final ConfigurationLoader loader = new ConfigurationLoader(initConfigParsers());
+					config = loader.load(cfgFile);
+					if (cache != null)
+						cache.store(config, loader.getIncludes());
 				}
 			}
 		}
 		frameworkConfig = config;
 	}
 
+	/**
+	 * chain of responsibility to support different types of 
+	 * configuration (xml, ini, yaml ...); only created if the configuration
+	 * is not passed in (restart) or read from the cache.
+	 */
 	private ConfigurationParser initConfigParsers() {
 		return ParserFactory.createConfigurationParser();
 	}
@@ -112,6 +117,18 @@ public class LauncherConfiguration {
 		return frameworkConfig;
 	}
 
+	/**
+	 * Replace the framework configuration by one matching the framework type, if necessary.
+	 * @param frameworkSymbolicName
+	 * 		bundle symbolic name of the framework jar
+	 * @return
+	 * 		the framework configuration
+	 */
+	public FrameworkConfiguration adaptFrameworkConfig(String frameworkSymbolicName) {
+		frameworkConfig = ConfigurationFactory.adapt(frameworkConfig, frameworkSymbolicName);
+		return frameworkConfig;
+	}
+
 	public CommandLine getOptions() {
 		return options;
 	}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.config;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Framework properties: the properties set by the configuration, on top of the
+ * system properties. The system layer is a snapshot of the system properties, taken when
+ * first needed and shared by all maps in the VM; it is taken again after the launcher has
+ * set system properties, see {@link #systemPropertiesChanged()}. The configuration layer is
+ * shared between copies until one of them is modified.<br>
+ * Iterating the map uses the effective properties, which are computed once and kept
+ * until the map or the system layer is modified.
+ */
+final class LayeredProperties extends AbstractMap<String, String> {
+
+	/*
+	 * Properties set by the configuration; a null value hides the system property
+	 * of the same name.
+	 */
+	private Map<String, String> overrides;
+	// true if overrides is shared with a copy, and must be copied before a modification
+	private boolean shared;
+	// effective properties, unmodifiable; null if not computed since the last modification
+	private Map<String, String> effective;
+	// the system layer the effective properties have been computed from
+	private Map<String, String> effectiveSystem;
+	// unmodifiable; null until needed, or after a change
+	private static volatile Map<String, String> systemSnapshot;
+
+	LayeredProperties() {
+		this.overrides = new HashMap<>();
+	}
+
+	private LayeredProperties(Map<String, String> overrides, Map<String, String> effective, Map<String, String> effectiveSystem) {
+		this.overrides = overrides;
+		this.shared = true;
+		this.effective = effective;
+		this.effectiveSystem = effectiveSystem;
+	}
+
+	private static Map<String, String> system() {
+		Map<String, String> snapshot = systemSnapshot;
+		if (snapshot == null) {
+			final Properties sys = System.getProperties();
+			final Map<String, String> map = new HashMap<>(sys.size() + 16);
+			synchronized (sys) {
+				for (Map.Entry<Object, Object> e : sys.entrySet()) {
+					map.put(e.getKey().toString(), e.getValue().toString());
+				}
+			}
+			snapshot = Collections.unmodifiableMap(map);
+			systemSnapshot = snapshot;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * To be called after the launcher has set system properties.
+	 */
+	static void systemPropertiesChanged() {
+		systemSnapshot = null;
+	}
+
+	/**
+	 * @return
+	 * 		a copy, which shares the configuration layer with this map until one of both is modified
+	 */
+	LayeredProperties copy() {
+		shared = true;
+		return new LayeredProperties(overrides, effective, effectiveSystem);
+	}
+
+	/**
+	 * @return
+	 * 		the properties set by the configuration, unmodifiable
+	 */
+	Map<String, String> getOverrides() {
+		return Collections.unmodifiableMap(overrides);
+	}
+
+	/**
+	 * @return
+	 * 		a new map containing the effective properties
+	 */
+	Map<String, String> materialize() {
+		return new HashMap<>(effective());
+	}
+
+	private Map<String, String> effective() {
+		final Map<String, String> system = system();
+		if (effective == null || effectiveSystem != system) {
+			final Map<String, String> result = new HashMap<>(system.size() + overrides.size() + 16);
+			result.putAll(system);
+			for (Map.Entry<String, String> e : overrides.entrySet()) {
+				if (e.getValue() == null)
+					result.remove(e.getKey());
+				else
+					result.put(e.getKey(), e.getValue());
+			}
+			effective = Collections.unmodifiableMap(result);
+			effectiveSystem = system;
+		}
+		return effective;
+	}
+
+	private Map<String, String> writable() {
+		effective = null;
+		if (shared) {
+			overrides = new HashMap<>(overrides);
+			shared = false;
+		}
+		return overrides;
+	}
+
+	@Override
+	public String get(Object key) {
+		if (overrides.containsKey(key))
+			return overrides.get(key);
+		return system().get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public String put(String key, String value) {
+		if (value == null)
+			throw new NullPointerException("Null values not allowed");
+		final String previous = get(key);
+		writable().put(key, value);
+		return previous;
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends String> m) {
+		final Map<String, String> target = writable();
+		for (Map.Entry<? extends String, ? extends String> e : m.entrySet()) {
+			if (e.getValue() == null)
+				throw new NullPointerException("Null values not allowed");
+			target.put(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Apply the configuration layer of another map on top of this one.
+	 * @param other
+	 */
+	void putOverrides(LayeredProperties other) {
+		if (other.overrides.isEmpty())
+			return;
+		writable().putAll(other.overrides);
+	}
+
+	@Override
+	public String remove(Object key) {
+		if (!(key instanceof String))
+			return null;
+		final String previous = get(key);
+		if (previous != null)
+			writable().put((String) key, null);
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		// hide all system properties, too
+		final Map<String, String> target = writable();
+		target.clear();
+		for (String key : system().keySet()) {
+			target.put(key, null);
+		}
+	}
+
+	@Override
+	public int size() {
+		return effective().size();
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		return effective().entrySet();
+	}
+
+}
@@ -13,9 +13,12 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.ogema.launcher.BundleInfo;
 import org.ogema.launcher.LauncherConstants;
@@ -28,13 +31,19 @@ import org.ogema.launcher.exceptions.InitBundleInfoException;
 /**
  * Parser for OSGi config.ini files. This parser is also able to parse the
  * extended configuration format:<br />
- * {@code <simple bundle location>[@ [<start-level>] [":start"]] [(mvn=groupId:artifactId:version)] }
+ * {@code <simple bundle location>[@ [<start-level>] [":start"]] [(mvn=groupId:artifactId:version)] }<br />
+ * The bundle location may be a http(s), ftp or file URL, the bundle is then downloaded to the bin
+ * directory. Entries may be spread over several lines using the properties file line continuation.
  * 
  * @author mperez
  */
 public class ConfigIniParser extends ConfigurationParser {
 
 	private static final String FILE_SUFFIX = ".ini";
+	private static final String JAR_SUFFIX = ".jar";
+	private static final String MVN_PREFIX = "(mvn=";
+	private static final String START = "start";
+	private static final List<String> URL_SCHEMES = Arrays.asList("http", "https", "ftp", "file");
 
     @Override
 	protected FrameworkConfiguration parseFile(File configFile)
@@ -81,10 +90,7 @@ public class ConfigIniParser extends ConfigurationParser {
 				// that should be installed / updated
 				String props = p.getProperty(s);
 				if (props != null) {
-					String[] bundlesFromProp = props.split(",");
-
-					for (int i = 0; i < bundlesFromProp.length; ++i) {
-						String entry = bundlesFromProp[i];
+					for (String entry : splitEntries(props)) {
 						BundleInfo bundleInfo;
 						try {
 							bundleInfo = getBundleInfo(entry);
@@ -112,91 +118,126 @@ public class ConfigIniParser extends ConfigurationParser {
 		return file.getName().toLowerCase().endsWith(FILE_SUFFIX);
 	}
 
-	private BundleInfo getBundleInfo(String cfgFileEntry)
-			throws InitBundleInfoException {
-		if(cfgFileEntry.startsWith("http") || cfgFileEntry.startsWith("ftp")
-				|| cfgFileEntry.startsWith("sftp")) {
-			throw new InitBundleInfoException("URLs aren't supported in " +
-					"config.ini files yet: " + cfgFileEntry);
+	/*
+	 * Splits the osgi.bundles value at the commas outside of the maven coordinates;
+	 * entries are trimmed, empty entries (e.g. after a trailing comma on a continued
+	 * line) are skipped.
+	 */
+	private static List<String> splitEntries(String value) {
+		final List<String> entries = new ArrayList<>();
+		int start = 0;
+		boolean inParens = false;
+		final int length = value.length();
+		for (int i = 0; i <= length; i++) {
+			final char c = i < length ? value.charAt(i) : ',';
+			if (c == '(') {
+				inParens = true;
+			} else if (c == ')') {
+				inParens = false;
+			} else if (c == ',' && !inParens) {
+				final String entry = value.substring(start, i).trim();
+				if (!entry.isEmpty())
+					entries.add(entry);
+				start = i + 1;
+			}
 		}
-
-		BundleInfo result = new BundleInfo();
-		result.setBinDir(getBundleBinDir(cfgFileEntry));
-		result.setFileName(getBundleFileName(cfgFileEntry));
-
-		String mavenCoords = getMavenCoords(cfgFileEntry);
-		result.setMavenCoords(mavenCoords);
-
-		int startLevel = getStartLevel(cfgFileEntry);
-		boolean start = getStart(cfgFileEntry);
-		result.setStartLevel(startLevel);
-		result.setStart(start);
-
-		return result;
-	}
-
-	private boolean getStart(String cfgFileEntry) {
-		Pattern startPattern = Pattern.compile("\\:start");
-		Matcher matcher = startPattern.matcher(cfgFileEntry);
-
-        return matcher.find();
+		return entries;
 	}
 
-	private int getStartLevel(String cfgFileEntry) {
+	/*
+	 * Single pass over an entry of the form
+	 * <location>[@[<start-level>][[:]start]][(mvn=<groupId:artifactId:version>)]
+	 * The location ends at the first '@' following ".jar", so that URLs may contain '@'.
+	 */
+	private BundleInfo getBundleInfo(String cfgFileEntry)
+			throws InitBundleInfoException {
+		final int length = cfgFileEntry.length();
 		int startLevel = LauncherConstants.DEF_START_LVL;
-		Pattern startLevelPattern = Pattern.compile("\\@{1}[0-9]{1,}");
-		Matcher matcher = startLevelPattern.matcher(cfgFileEntry);
-
-		if(matcher.find()) {
-			startLevel = Integer.parseInt(matcher.group().substring(1));
+		boolean start = false;
+		String mavenCoords = null;
+		int lastSeparator = -1;
+		int i = 0;
+		// location
+		for (; i < length; i++) {
+			final char c = cfgFileEntry.charAt(i);
+			if (c == '/' || c == '\\') {
+				lastSeparator = i;
+			} else if (c == '@' && cfgFileEntry.regionMatches(true, i - 4, JAR_SUFFIX, 0, 4)) {
+				break;
+			} else if (c == '(' && cfgFileEntry.startsWith(MVN_PREFIX, i)) {
+				break;
+			}
 		}
-		return startLevel;
-	}
-	
-	private String getBundleBinDir(String cfgFileEntry) {
-		// bundle location has to be at the beginning of each config.ini file entry:
-		if(cfgFileEntry.contains("/")) {
-			return cfgFileEntry.substring(0, cfgFileEntry.lastIndexOf("/"));
-		} else if(cfgFileEntry.contains("\\")){
-			// windows file separator used ?
-			return cfgFileEntry.substring(0, cfgFileEntry.lastIndexOf("\\"));
-		} else {
-			// no bin dir given
-			return "";
+		final int locationEnd = i;
+		// start level and start flag
+		if (i < length && cfgFileEntry.charAt(i) == '@') {
+			int level = -1;
+			for (i++; i < length; i++) {
+				final char c = cfgFileEntry.charAt(i);
+				if (c >= '0' && c <= '9') {
+					level = (level < 0 ? 0 : level * 10) + (c - '0');
+				} else if (c == ':' && cfgFileEntry.startsWith(START, i + 1)) {
+					start = true;
+					i += START.length();
+				} else if (c == 's' && cfgFileEntry.startsWith(START, i)) {
+					start = true;
+					i += START.length() - 1;
+				} else if (c == '(') {
+					break;
+				} else if (!Character.isWhitespace(c)) {
+					throw new InitBundleInfoException("Invalid config file entry, unexpected character '" + c
+							+ "' at position " + i + ": " + cfgFileEntry);
+				}
+			}
+			if (level >= 0)
+				startLevel = level;
 		}
-	}
-
-	private String getBundleFileName(String cfgFileEntry)
-			throws InitBundleInfoException {
-		// bundle location has to be at the beginning of each config.ini file entry:
-		int idxOfDotJar = cfgFileEntry.indexOf(".jar");
-		
-		String result = cfgFileEntry.substring(0, idxOfDotJar+4);
-		if(result.contains("/")) {
-			result = result.substring(result.lastIndexOf("/") + 1);
-		} else if(result.contains("\\")){
-			// windows file seperator used ?
-			result = result.substring(result.lastIndexOf("\\") + 1);
+		// maven coordinates
+		if (i < length) {
+			final int end = cfgFileEntry.indexOf(')', i);
+			if (!cfgFileEntry.startsWith(MVN_PREFIX, i) || end < 0) {
+				throw new InitBundleInfoException("Invalid config file entry, expected (mvn=groupId:artifactId:version) at position "
+						+ i + ": " + cfgFileEntry);
+			}
+			mavenCoords = cfgFileEntry.substring(i + MVN_PREFIX.length(), end).trim();
 		}
-		
-		if(idxOfDotJar < 0) {
+
+		final String location = cfgFileEntry.substring(0, locationEnd).trim();
+		if (!location.regionMatches(true, location.length() - 4, JAR_SUFFIX, 0, 4)) {
 			throw new InitBundleInfoException("Invalid config file -> cannot extract file location" +
 					" from: " + cfgFileEntry + " -> do you've maybe forgot " +
 					"the \".jar\" at the end of the location?");
 		}
+		BundleInfo result = new BundleInfo();
+		final URI url = getUrl(location);
+		if (url != null) {
+			// downloaded to the default bin directory
+			result.setRemoteLocation(url);
+			result.setFileName(location.substring(location.lastIndexOf('/') + 1));
+		} else {
+			result.setBinDir(lastSeparator >= 0 ? location.substring(0, lastSeparator) : "");
+			result.setFileName(location.substring(lastSeparator + 1));
+		}
+		result.setMavenCoords(mavenCoords);
+		result.setStartLevel(startLevel);
+		result.setStart(start);
 
 		return result;
 	}
 
-	private String getMavenCoords(String cfgFileEntry) {
-		int idxMavenCoords = cfgFileEntry.indexOf("(mvn=");
-		if (idxMavenCoords > -1){
-			return cfgFileEntry.substring(
-					idxMavenCoords + 5,
-					cfgFileEntry.lastIndexOf(")"));
+	private static URI getUrl(String location) throws InitBundleInfoException {
+		final int colon = location.indexOf(':');
+		// at least two characters, to distinguish Windows drive letters
+		if (colon < 2)
+			return null;
+		final String scheme = location.substring(0, colon).toLowerCase();
+		if (!URL_SCHEMES.contains(scheme))
+			return null;
+		try {
+			return new URI(location);
+		} catch (URISyntaxException e) {
+			throw new InitBundleInfoException("Invalid bundle URL: " + location, e);
 		}
-
-		return null;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.config.parser;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.Location;
+
+import org.ogema.launcher.OgemaLauncher;
+import org.ogema.launcher.exceptions.FrameworkConfigurationException;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Collects the schema violations and semantic errors found in a configuration file,
+ * so that all of them can be reported at once.
+ */
+class ConfigurationErrors implements ErrorHandler {
+
+    private final File file;
+    private final List<String> errors = new ArrayList<>();
+
+    ConfigurationErrors(File file) {
+        this.file = file;
+    }
+
+    void add(Location location, String message) {
+        add(location != null ? location.getLineNumber() : -1, location != null ? location.getColumnNumber() : -1, message);
+    }
+
+    private void add(int line, int column, String message) {
+        final String error = String.format("%s:%d:%d: %s", file.getPath(), line, column, message);
+        // the validator may report the same violation more than once
+        if (!errors.contains(error))
+            errors.add(error);
+    }
+
+    boolean isEmpty() {
+        return errors.isEmpty();
+    }
+
+    /**
+     * @throws FrameworkConfigurationException
+     * 		listing all errors, if there are any
+     */
+    void check() throws FrameworkConfigurationException {
+        if (errors.isEmpty())
+            return;
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Invalid configuration file ").append(file.getPath()).append(", ")
+            .append(errors.size()).append(errors.size() == 1 ? " error:" : " errors:");
+        for (String e : errors) {
+            sb.append("\n  ").append(e);
+        }
+        throw new FrameworkConfigurationException(sb.toString());
+    }
+
+    @Override
+    public void warning(SAXParseException exception) throws SAXException {
+        OgemaLauncher.LOGGER.warning(String.format("%s:%d:%d: %s", file.getPath(),
+                exception.getLineNumber(), exception.getColumnNumber(), exception.getMessage()));
+    }
+
+    @Override
+    public void error(SAXParseException exception) throws SAXException {
+        add(exception.getLineNumber(), exception.getColumnNumber(), exception.getMessage());
+    }
+
+    @Override
+    public void fatalError(SAXParseException exception) throws SAXException {
+        add(exception.getLineNumber(), exception.getColumnNumber(), exception.getMessage());
+        throw exception;
+    }
+
+}
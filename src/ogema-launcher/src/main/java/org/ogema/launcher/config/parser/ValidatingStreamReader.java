@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.config.parser;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import javax.xml.validation.ValidatorHandler;
+
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Passes the events read from the underlying reader to a schema validator, so that
+ * a document is parsed and validated in a single pass, without building a DOM.
+ * Elements without namespace are validated as elements of the configuration namespace,
+ * older configuration files often lack the namespace declaration.
+ */
+class ValidatingStreamReader extends StreamReaderDelegate {
+
+    private final ValidatorHandler validator;
+    private final String defaultNamespace;
+
+    ValidatingStreamReader(XMLStreamReader reader, ValidatorHandler validator, String defaultNamespace) throws XMLStreamException {
+        super(reader);
+        this.validator = validator;
+        this.defaultNamespace = defaultNamespace;
+        validator.setDocumentLocator(new Locator() {
+
+            @Override
+            public String getPublicId() {
+                return getLocation().getPublicId();
+            }
+
+            @Override
+            public String getSystemId() {
+                return getLocation().getSystemId();
+            }
+
+            @Override
+            public int getLineNumber() {
+                return getLocation().getLineNumber();
+            }
+
+            @Override
+            public int getColumnNumber() {
+                return getLocation().getColumnNumber();
+            }
+        });
+        try {
+            validator.startDocument();
+        } catch (SAXException e) {
+            throw toStreamException(e);
+        }
+        if (reader.getEventType() == START_ELEMENT)
+            forward(START_ELEMENT);
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        final int event = super.next();
+        forward(event);
+        return event;
+    }
+
+    // the delegate implementations would bypass next()
+    @Override
+    public int nextTag() throws XMLStreamException {
+        int event = next();
+        while (event == CHARACTERS && isWhiteSpace() || event == SPACE || event == COMMENT
+                || event == PROCESSING_INSTRUCTION || event == CDATA && isWhiteSpace()) {
+            event = next();
+        }
+        if (event != START_ELEMENT && event != END_ELEMENT)
+            throw new XMLStreamException("expected start or end tag", getLocation());
+        return event;
+    }
+
+    @Override
+    public String getElementText() throws XMLStreamException {
+        if (getEventType() != START_ELEMENT)
+            throw new XMLStreamException("parser must be on START_ELEMENT to read next text", getLocation());
+        final StringBuilder sb = new StringBuilder();
+        int event = next();
+        while (event != END_ELEMENT) {
+            if (event == CHARACTERS || event == CDATA || event == SPACE || event == ENTITY_REFERENCE)
+                sb.append(getText());
+            else if (event != COMMENT && event != PROCESSING_INSTRUCTION)
+                throw new XMLStreamException("unexpected content in text-only element", getLocation());
+            event = next();
+        }
+        return sb.toString();
+    }
+
+    private void forward(int event) throws XMLStreamException {
+        try {
+            switch (event) {
+            case START_ELEMENT:
+                for (int i = 0; i < getNamespaceCount(); i++) {
+                    validator.startPrefixMapping(nonNull(getNamespacePrefix(i)), nonNull(getNamespaceURI(i)));
+                }
+                final AttributesImpl atts = new AttributesImpl();
+                for (int i = 0; i < getAttributeCount(); i++) {
+                    final String prefix = getAttributePrefix(i);
+                    final String local = getAttributeLocalName(i);
+                    atts.addAttribute(nonNull(getAttributeNamespace(i)), local,
+                            prefix == null || prefix.isEmpty() ? local : prefix + ":" + local,
+                            getAttributeType(i), getAttributeValue(i));
+                }
+                validator.startElement(getElementNamespace(), getLocalName(), getQName(), atts);
+                break;
+            case END_ELEMENT:
+                validator.endElement(getElementNamespace(), getLocalName(), getQName());
+                for (int i = 0; i < getNamespaceCount(); i++) {
+                    validator.endPrefixMapping(nonNull(getNamespacePrefix(i)));
+                }
+                break;
+            case CHARACTERS:
+            case CDATA:
+                validator.characters(getTextCharacters(), getTextStart(), getTextLength());
+                break;
+            case SPACE:
+                validator.ignorableWhitespace(getTextCharacters(), getTextStart(), getTextLength());
+                break;
+            case END_DOCUMENT:
+                validator.endDocument();
+                break;
+            default:
+            }
+        } catch (SAXException e) {
+            throw toStreamException(e);
+        }
+    }
+
+    private String getElementNamespace() {
+        final String ns = getNamespaceURI();
+        return ns == null || ns.isEmpty() ? defaultNamespace : ns;
+    }
+
+    private String getQName() {
+        final String prefix = getPrefix();
+        return prefix == null || prefix.isEmpty() ? getLocalName() : prefix + ":" + getLocalName();
+    }
+
+    private static String nonNull(String s) {
+        return s != null ? s : "";
+    }
+
+    private XMLStreamException toStreamException(SAXException e) {
+        final Location location = getLocation();
+        final XMLStreamException xse = new XMLStreamException(e.getMessage(), location);
+        xse.initCause(e);
+        return xse;
+    }
+
+}
@@ -14,11 +14,17 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.net.URL;
 
+import javax.xml.XMLConstants;
+import javax.xml.stream.Location;
 import javax.xml.stream.StreamFilter;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.ValidatorHandler;
 
 import org.ogema.launcher.BundleInfo;
 import org.ogema.launcher.LauncherConstants;
@@ -31,21 +37,50 @@ import org.ogema.launcher.config.xml.Configuration.Bundles;
 import org.ogema.launcher.config.xml.Configuration.Properties;
 import org.ogema.launcher.config.xml.Configuration.Properties.Property;
 import org.ogema.launcher.exceptions.FrameworkConfigurationException;
+import org.xml.sax.SAXException;
 
 public class XmlStaxConfigParser extends ConfigurationParser {
 
     private static final String FILE_SUFFIX = ".xml";
+    private static final String NAMESPACE = "http://www.ogema-source.net/config";
+    private static final String SCHEMA = "/org/ogema/launcher/config-1.3.0.xsd";
+    private static Schema schema;
+    private static boolean schemaLoaded;
 
     @Override
     protected boolean canHandle(File file) {
         return file.getName().toLowerCase().endsWith(FILE_SUFFIX);
     }
 
-    private Configuration staxParse(File f) throws IOException {
+    /**
+     * Schema of the configuration files, thread-safe; null if it could not be loaded
+     */
+    private static Schema getSchema() {
+        synchronized (XmlStaxConfigParser.class) {
+            if (!schemaLoaded) {
+                schemaLoaded = true;
+                final URL xsd = XmlStaxConfigParser.class.getResource(SCHEMA);
+                try {
+                    schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(xsd);
+                } catch (SAXException | RuntimeException e) {
+                    OgemaLauncher.LOGGER.warning("Could not load configuration schema " + xsd + ", configuration files will not be validated: " + e);
+                }
+            }
+            return schema;
+        }
+    }
+
+    private Configuration staxParse(File f, ConfigurationErrors errors) throws IOException {
         Configuration config = new Configuration();
         try (InputStream in = new FileInputStream(f); BufferedInputStream bin = new BufferedInputStream(in)) {
             XMLInputFactory ifac = XMLInputFactory.newInstance();
-            XMLStreamReader rawReader = ifac.createXMLStreamReader(bin);
+            XMLStreamReader rawReader = ifac.createXMLStreamReader(f.toURI().toString(), bin);
+            final Schema schema = getSchema();
+            if (schema != null) {
+                final ValidatorHandler validator = schema.newValidatorHandler();
+                validator.setErrorHandler(errors);
+                rawReader = new ValidatingStreamReader(rawReader, validator, NAMESPACE);
+            }
             StreamFilter filter = new StreamFilter() {
 
                 @Override
@@ -53,100 +88,141 @@ public class XmlStaxConfigParser extends ConfigurationParser {
                     int type = reader.getEventType();
                     return type == XMLStreamReader.START_ELEMENT ||
                             type == XMLStreamReader.END_ELEMENT ||
-                            type == XMLStreamReader.ATTRIBUTE;
+                            type == XMLStreamReader.END_DOCUMENT;
                 }
             };
             XMLStreamReader reader = ifac.createFilteredReader(rawReader, filter);
             
-            acceptConfiguration(config, reader);
-            
+            acceptConfiguration(config, reader, errors);
+            // the validator needs to see the end of the document
+            while (reader.hasNext()) {
+                reader.next();
+            }
         } catch (XMLStreamException xse) {
-            throw new IOException(xse);
+            // not well-formed; reported once, by the validator or here
+            if (errors.isEmpty() || !(xse.getCause() instanceof SAXException)) {
+                String msg = xse.getMessage();
+                // the message of the JDK parser repeats the location
+                final int idx = msg != null ? msg.indexOf("Message: ") : -1;
+                errors.add(xse.getLocation(), idx >= 0 ? msg.substring(idx + 9) : msg);
+            }
         }
         return config;
     }
     
-    private Configuration acceptConfiguration(Configuration cfg, XMLStreamReader reader) throws XMLStreamException {
+    /*
+     * The accept methods build the configuration from the elements they know and skip
+     * anything else; unexpected elements are reported by the validator.
+     */
+    private Configuration acceptConfiguration(Configuration cfg, XMLStreamReader reader, ConfigurationErrors errors) throws XMLStreamException {
         if (reader.getEventType() != XMLStreamReader.START_ELEMENT || !reader.getLocalName().equals("configuration")) {
-            throw new IllegalStateException("expected configuration element " + reader.getLocation());
+            errors.add(reader.getLocation(), "expected configuration element");
+            return cfg;
         }
-        reader.next();
-        Bundle frameworkBundle = acceptBundle(reader);
-        cfg.setFrameworkbundle(frameworkBundle);
-        
-        reader.next();
-        cfg.setBundles(acceptBundles(reader));
-        
-        reader.next();
-        if (reader.getLocalName().equals("properties")){
-            cfg.setProperties(acceptProperties(reader));
-            reader.next();
-        }
-        if (reader.getLocalName().equals("deleteList")){
-            cfg.setDeleteList(acceptDeleteList(reader));
+        // child elements may appear in any order (xsd: all)
+        while (reader.next() == XMLStreamReader.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+            case "frameworkbundle":
+                cfg.setFrameworkbundle(acceptBundle(reader, errors));
+                break;
+            case "bundles":
+                cfg.setBundles(acceptBundles(reader, errors));
+                break;
+            case "properties":
+                cfg.setProperties(acceptProperties(reader));
+                break;
+            case "deleteList":
+                cfg.setDeleteList(acceptDeleteList(reader));
+                break;
+            case "includes":
+                cfg.setIncludes(acceptIncludes(reader));
+                break;
+            default:
+                skip(reader);
+            }
         }
         return cfg;
     }
     
-    private Properties acceptProperties(XMLStreamReader reader) throws XMLStreamException {
-        if (reader.getEventType() != XMLStreamReader.START_ELEMENT || !reader.getLocalName().equals("properties")) {
-            throw new IllegalStateException("expected properties element " + reader.getLocation());
+    // skips the current element including its children
+    private static void skip(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            final int event = reader.next();
+            if (event == XMLStreamReader.START_ELEMENT)
+                depth++;
+            else if (event == XMLStreamReader.END_ELEMENT)
+                depth--;
+            else if (event == XMLStreamReader.END_DOCUMENT)
+                return;
+        }
+    }
+    
+    private Configuration.Includes acceptIncludes(XMLStreamReader reader) throws XMLStreamException {
+        Configuration.Includes includes = new Configuration.Includes();
+        while (reader.next() == XMLStreamReader.START_ELEMENT) {
+            String path = reader.getAttributeValue(null, "path");
+            if (reader.getLocalName().equals("include") && path != null) {
+                includes.getInclude().add(path);
+            }
+            skip(reader);
         }
+        return includes;
+    }
+    
+    private Properties acceptProperties(XMLStreamReader reader) throws XMLStreamException {
         Properties p = new Configuration.Properties();
-        while (reader.next() != XMLStreamReader.END_ELEMENT) {
-            p.getProperty().add(acceptProperty(reader));
+        while (reader.next() == XMLStreamReader.START_ELEMENT) {
+            Property prop = acceptProperty(reader);
+            if (prop != null) {
+                p.getProperty().add(prop);
+            }
         }        
         return p;
     }
     
     private Property acceptProperty(XMLStreamReader reader) throws XMLStreamException {
-        if (reader.getEventType() != XMLStreamReader.START_ELEMENT || !reader.getLocalName().equals("property")) {
-            throw new IllegalStateException("expected property element " + reader.getLocation());
+        if (!reader.getLocalName().equals("property")) {
+            skip(reader);
+            return null;
         }
         Property p = new Configuration.Properties.Property();
         p.setKey(reader.getAttributeValue(null, "key"));
         p.setValue(reader.getAttributeValue(null, "value"));
-        while (reader.next() != XMLStreamReader.END_ELEMENT) {
-        }
+        skip(reader);
         //System.out.printf("%s=%s%n", p.getKey(), p.getValue());
-        return p;
+        return p.getKey() != null && p.getValue() != null ? p : null;
     }
     
     private Configuration.DeleteList acceptDeleteList(XMLStreamReader reader) throws XMLStreamException {
-        if (reader.getEventType() != XMLStreamReader.START_ELEMENT || !reader.getLocalName().equals("deleteList")) {
-            throw new IllegalStateException("expected deleteList element " + reader.getLocation());
-        }
         Configuration.DeleteList dl = new Configuration.DeleteList();
-        while (reader.next() != XMLStreamReader.END_ELEMENT) {
-            dl.getFile().add(acceptDeleteFile(reader));
+        while (reader.next() == XMLStreamReader.START_ELEMENT) {
+            if (reader.getLocalName().equals("file")) {
+                dl.getFile().add(reader.getElementText());
+            } else {
+                skip(reader);
+            }
         }
         return dl;
     }
     
-    private String acceptDeleteFile(XMLStreamReader reader) throws XMLStreamException {
-        if (reader.getEventType() != XMLStreamReader.START_ELEMENT || !reader.getLocalName().equals("file")) {
-            throw new IllegalStateException("expected deleteList element " + reader.getLocation());
-        }
-        String filename = reader.getElementText();
-        //System.out.println(filename);
-        return filename;
-    }
-    
-    private Configuration.Bundles acceptBundles(XMLStreamReader reader) throws XMLStreamException {
-        if (reader.getEventType() != XMLStreamReader.START_ELEMENT || !reader.getLocalName().equals("bundles")) {
-            throw new IllegalStateException("expected bundles element " + reader.getLocation());
-        }
+    private Configuration.Bundles acceptBundles(XMLStreamReader reader, ConfigurationErrors errors) throws XMLStreamException {
         Bundles bundles = new Configuration.Bundles();
-        while (reader.next() != XMLStreamReader.END_ELEMENT) {
-            bundles.getBundle().add(acceptBundle(reader));
+        while (reader.next() == XMLStreamReader.START_ELEMENT) {
+            if (reader.getLocalName().equals("bundle")) {
+                Bundle b = acceptBundle(reader, errors);
+                if (b != null) {
+                    bundles.getBundle().add(b);
+                }
+            } else {
+                skip(reader);
+            }
         }
         return bundles;
     }
     
-    private Bundle acceptBundle(XMLStreamReader reader) throws XMLStreamException {
-        if (reader.getEventType() != XMLStreamReader.START_ELEMENT || !(reader.getLocalName().equals("bundle")||reader.getLocalName().equals("frameworkbundle"))) {
-            throw new IllegalStateException("expected bundle or frameworkbundle element " + reader.getLocation());
-        }
+    private Bundle acceptBundle(XMLStreamReader reader, ConfigurationErrors errors) throws XMLStreamException {
+        final Location location = reader.getLocation();
         Bundle b = new Bundle();
         for (int i = 0; i < reader.getAttributeCount(); i++) {
             String name = reader.getAttributeLocalName(i);
@@ -157,11 +233,24 @@ public class XmlStaxConfigParser extends ConfigurationParser {
                 case "file" : b.setFile(v); break;
                 case "groupId" : b.setGroupId(v); break;
                 case "start" : b.setStart(Boolean.valueOf(v)); break;
-                case "startLevel" : b.setStartLevel(BigInteger.valueOf(Long.valueOf(v))); break;
+                case "startLevel" :
+                    try {
+                        b.setStartLevel(new BigInteger(v.trim()));
+                    } catch (NumberFormatException e) {
+                        if (getSchema() == null) // otherwise reported by the validator
+                            errors.add(location, "invalid start level " + v);
+                    }
+                    break;
                 case "version" : b.setVersion(v); break;
             }
         }
-        while (reader.next() != XMLStreamReader.END_ELEMENT) {
+        skip(reader);
+        // not expressible in the schema
+        if (b.getFile() == null && (b.getGroupId() == null
+                || b.getArtifactId() == null || b.getVersion() == null)) {
+            errors.add(location, "missing file location and/or group id, artifact id and version for "
+                    + reader.getLocalName() + " " + getBundleIdentifier(b));
+            return null;
         }
         //System.out.println(b);
         return b;
@@ -175,7 +264,9 @@ public class XmlStaxConfigParser extends ConfigurationParser {
             long memBefore = Runtime.getRuntime().totalMemory();
             long now = System.currentTimeMillis();
             
-            Configuration cfg = staxParse(configFile);
+            ConfigurationErrors errors = new ConfigurationErrors(configFile);
+            Configuration cfg = staxParse(configFile, errors);
+            errors.check();
 
             Bundle frameworkbundle = cfg.getFrameworkbundle();
             BundleInfo fwkBundle = null;
@@ -194,9 +285,11 @@ public class XmlStaxConfigParser extends ConfigurationParser {
 
             result.setFrameworkBundle(fwkBundle);
 
-            for (Bundle b : cfg.getBundles().getBundle()) {
-                BundleInfo bi = getBundleInfo(b);
-                result.addToBundles(bi);
+            if (cfg.getBundles() != null) {
+                for (Bundle b : cfg.getBundles().getBundle()) {
+                    BundleInfo bi = getBundleInfo(b);
+                    result.addToBundles(bi);
+                }
             }
 
             if (cfg.getProperties() != null) {
@@ -209,11 +302,18 @@ public class XmlStaxConfigParser extends ConfigurationParser {
                 result.setDeleteList(cfg.getDeleteList().getFile());
             }
 
+            if (cfg.getIncludes() != null) {
+                final File dir = configFile.getAbsoluteFile().getParentFile();
+                for (String include : cfg.getIncludes().getInclude()) {
+                    // do not use Path here, glob characters are not allowed in paths on all platforms
+                    result.addInclude(new File(include).isAbsolute() ? include : dir.getPath() + File.separator + include);
+                }
+            }
+
             OgemaLauncher.LOGGER.fine(String.format("read configuration, time=%dms, delta mem=%d",
                     System.currentTimeMillis() - now, Runtime.getRuntime().totalMemory() - memBefore));
         } catch (IOException e) {
-            OgemaLauncher.LOGGER.warning(this.getClass().getSimpleName()
-                    + ": " + e);
+            throw new FrameworkConfigurationException("Could not read configuration file " + configFile, e);
         }
 
         return result;
@@ -16,6 +16,7 @@ public class Configuration {
     protected Configuration.Bundles bundles;
     protected Configuration.Properties properties;
     protected Configuration.DeleteList deleteList;
+    protected Configuration.Includes includes;
 
     /**
      * Gets the value of the frameworkbundle property.
@@ -113,6 +114,30 @@ public class Configuration {
         this.deleteList = value;
     }
 
+    /**
+     * Gets the value of the includes property.
+     * 
+     * @return
+     *     possible object is
+     *     {@link Configuration.Includes }
+     *     
+     */
+    public Configuration.Includes getIncludes() {
+        return includes;
+    }
+
+    /**
+     * Sets the value of the includes property.
+     * 
+     * @param value
+     *     allowed object is
+     *     {@link Configuration.Includes }
+     *     
+     */
+    public void setIncludes(Configuration.Includes value) {
+        this.includes = value;
+    }
+
     public static class Bundles {
 
         protected List<Bundle> bundle;
@@ -162,6 +187,27 @@ public class Configuration {
 
     }
 
+    public static class Includes {
+
+        protected List<String> include;
+
+        /**
+         * Gets the paths of the include elements: a file, a directory of configuration
+         * fragments or a glob pattern, relative to the including file.
+         * 
+         * <p>
+         * This accessor method returns a reference to the live list,
+         * not a snapshot.
+         */
+        public List<String> getInclude() {
+            if (include == null) {
+                include = new ArrayList<String>();
+            }
+            return this.include;
+        }
+
+    }
+
     public static class Properties {
 
         protected List<Configuration.Properties.Property> property;
@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.ogema.launcher.OgemaLauncher;
+import org.ogema.launcher.RestartType;
+import org.ogema.launcher.util.FrameworkUtil;
+import org.osgi.framework.launch.Framework;
+
+/**
+ * Lifecycle counters of the launcher. Recording is cheap and always active; the values are
+ * only published if {@link #enable(Integer)} is called (option <code>--metrics [port]</code>),
+ * via JMX and optionally via a {@link PrometheusEndpoint}. Each instance of the supervisor
+ * has its own metrics, see {@link #forInstance(String)}.
+ */
+public class LauncherMetrics implements LauncherMetricsMXBean {
+
+	public static final String OBJECT_NAME = "org.ogema.launcher:type=LauncherMetrics";
+	private static final LauncherMetrics INSTANCE = new LauncherMetrics(OBJECT_NAME);
+
+	private final Map<String, Long> phases = new LinkedHashMap<>();
+	private final Map<RestartType, AtomicLong> restarts = new EnumMap<>(RestartType.class);
+	private final AtomicLong refreshCount = new AtomicLong();
+	private final AtomicLong refreshTimeTotal = new AtomicLong();
+	private volatile long lastRefreshTime;
+	private final AtomicLong frameworkWarnings = new AtomicLong();
+	private final AtomicLong frameworkErrors = new AtomicLong();
+	private volatile Framework framework;
+	private final String objectName;
+	private boolean enabled;
+
+	private LauncherMetrics(String objectName) {
+		this.objectName = objectName;
+		for (RestartType type : RestartType.values()) {
+			restarts.put(type, new AtomicLong());
+		}
+	}
+
+	public static LauncherMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @param name
+	 * 		name of a supervised framework instance
+	 * @return
+	 * 		new metrics for the instance, published via JMX only
+	 */
+	public static LauncherMetrics forInstance(String name) {
+		return new LauncherMetrics(OBJECT_NAME + ",instance=" + ObjectName.quote(name));
+	}
+
+	public synchronized boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Registers the MBean and, if a port is given, starts the Prometheus endpoint.
+	 * Subsequent calls have no effect.
+	 * @param port
+	 * 		may be null
+	 */
+	public synchronized void enable(Integer port) {
+		if (enabled)
+			return;
+		enabled = true;
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(objectName));
+			OgemaLauncher.LOGGER.fine("Launcher metrics registered as " + objectName);
+		} catch (JMException e) {
+			OgemaLauncher.LOGGER.warning("Could not register launcher metrics MBean: " + e);
+		}
+		if (port != null) {
+			try {
+				new PrometheusEndpoint(this, port).start();
+			} catch (IOException e) {
+				OgemaLauncher.LOGGER.warning("Could not start metrics endpoint on port " + port + ": " + e);
+			}
+		}
+	}
+
+	/**
+	 * Record the duration of a launch phase.
+	 * @param phase
+	 * @param startNanos
+	 * 		{@link System#nanoTime()} at the beginning of the phase
+	 * @return
+	 * 		the current {@link System#nanoTime()}, i.e. the start of the next phase
+	 */
+	public long phaseDone(String phase, long startNanos) {
+		final long now = System.nanoTime();
+		synchronized (phases) {
+			phases.put(phase, TimeUnit.NANOSECONDS.toMillis(now - startNanos));
+		}
+		return now;
+	}
+
+	public void restart(RestartType type) {
+		restarts.get(type).incrementAndGet();
+	}
+
+	public void refreshDone(long startNanos) {
+		final long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+		lastRefreshTime = duration;
+		refreshTimeTotal.addAndGet(duration);
+		refreshCount.incrementAndGet();
+	}
+
+	public void frameworkWarning() {
+		frameworkWarnings.incrementAndGet();
+	}
+
+	public void frameworkError() {
+		frameworkErrors.incrementAndGet();
+	}
+
+	/**
+	 * @param framework
+	 * 		the framework whose bundles are counted, may be null
+	 */
+	public void setFramework(Framework framework) {
+		this.framework = framework;
+	}
+
+	@Override
+	public Map<String, Long> getPhaseDurations() {
+		synchronized (phases) {
+			return new LinkedHashMap<>(phases);
+		}
+	}
+
+	@Override
+	public Map<String, Integer> getBundleStates() {
+		return FrameworkUtil.countBundleStates(framework);
+	}
+
+	@Override
+	public Map<String, Long> getRestarts() {
+		final Map<String, Long> result = new LinkedHashMap<>();
+		for (Map.Entry<RestartType, AtomicLong> entry : restarts.entrySet()) {
+			result.put(entry.getKey().name(), entry.getValue().get());
+		}
+		return result;
+	}
+
+	@Override
+	public long getRefreshCount() {
+		return refreshCount.get();
+	}
+
+	@Override
+	public long getRefreshTimeTotal() {
+		return refreshTimeTotal.get();
+	}
+
+	@Override
+	public long getLastRefreshTime() {
+		return lastRefreshTime;
+	}
+
+	@Override
+	public long getFrameworkWarnings() {
+		return frameworkWarnings.get();
+	}
+
+	@Override
+	public long getFrameworkErrors() {
+		return frameworkErrors.get();
+	}
+
+}
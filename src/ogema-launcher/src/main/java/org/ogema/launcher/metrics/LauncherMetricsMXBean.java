@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link LauncherMetrics}, registered as
+ * <code>org.ogema.launcher:type=LauncherMetrics</code>, and per instance in supervisor mode as
+ * <code>org.ogema.launcher:type=LauncherMetrics,instance=&lt;name&gt;</code>. JVM memory, GC and thread
+ * statistics are available from the platform MXBeans.
+ */
+public interface LauncherMetricsMXBean {
+
+	/**
+	 * @return
+	 * 		duration in ms of each launch phase of the last (re)start
+	 */
+	Map<String, Long> getPhaseDurations();
+
+	/**
+	 * @return
+	 * 		number of bundles by state, empty if the framework is not running
+	 */
+	Map<String, Integer> getBundleStates();
+
+	/**
+	 * @return
+	 * 		number of framework terminations by restart type
+	 */
+	Map<String, Long> getRestarts();
+
+	long getRefreshCount();
+
+	long getRefreshTimeTotal();
+
+	long getLastRefreshTime();
+
+	long getFrameworkWarnings();
+
+	long getFrameworkErrors();
+
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.AccessController;
+import java.security.Permission;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ogema.launcher.OgemaLauncher;
+import org.ogema.launcher.util.FrameworkUtil;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleReference;
+
+/**
+ * Permission check statistics for launches with OSGi security (option <code>--security-profile</code>).
+ * The security manager installed by the framework is wrapped by one that counts and times each
+ * <code>checkPermission</code> call per permission type. On average one in n calls, chosen randomly, is
+ * additionally attributed to the bundle whose class is closest to the check on the call stack, which is
+ * too expensive to do for all calls; n is set by the system property {@value #SAMPLING_PROPERTY}, default
+ * {@value #DEF_SAMPLING}.
+ * The report is printed and written to <code>security-profile.txt</code> in the launcher data
+ * directory when the VM shuts down.
+ */
+public class PermissionCheckProfiler {
+
+	public static final String SAMPLING_PROPERTY = "org.ogema.launcher.security.profile.sampling";
+	private static final int DEF_SAMPLING = 16;
+	private static final int REPORT_ENTRIES = 25;
+	private static final String REPORT_FILE = "security-profile.txt";
+	private static final PermissionCheckProfiler INSTANCE = new PermissionCheckProfiler();
+
+	private final int sampling = Math.max(1, Integer.getInteger(SAMPLING_PROPERTY, DEF_SAMPLING));
+	private final AtomicLong calls = new AtomicLong();
+	private final ConcurrentMap<String, Stat> byType = new ConcurrentHashMap<>();
+	// key: bundle location and permission type, sampled calls only
+	private final ConcurrentMap<String, Stat> byLocation = new ConcurrentHashMap<>();
+	// key: bundle class loader; a refresh creates new class loaders
+	private final Map<ClassLoader, String> locations = Collections.synchronizedMap(new WeakHashMap<ClassLoader, String>());
+	// set while a check is recorded; loading a class or attributing a call triggers checks itself
+	private final ThreadLocal<Boolean> recording = new ThreadLocal<>();
+	private final long created = System.nanoTime();
+	private boolean reportScheduled;
+
+	private PermissionCheckProfiler() {}
+
+	public static PermissionCheckProfiler getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Wraps the current security manager, to be called after the framework has installed it.
+	 * The statistics are retained when the framework installs a new security manager on a
+	 * restart, and this is called again.
+	 * @return
+	 * 		true if the profiling security manager is installed
+	 */
+	public synchronized boolean install() {
+		final SecurityManager current = System.getSecurityManager();
+		if (current == null) {
+			OgemaLauncher.LOGGER.warning("No security manager installed, permission checks cannot be profiled");
+			return false;
+		}
+		if (current instanceof ProfilingSecurityManager)
+			return true;
+		// initialize the classes used by the checks now, their initialization involves checks itself
+		ThreadLocalRandom.current().nextInt(sampling);
+		new Stat(null).add(0, false);
+		try {
+			System.setSecurityManager(new ProfilingSecurityManager(current));
+		} catch (SecurityException | UnsupportedOperationException e) {
+			OgemaLauncher.LOGGER.warning("Could not install the profiling security manager: " + e);
+			return false;
+		}
+		if (!reportScheduled) {
+			reportScheduled = true;
+			Runtime.getRuntime().addShutdownHook(new Thread("launcher-security-profile") {
+
+				@Override
+				public void run() {
+					writeReport();
+				}
+			});
+		}
+		OgemaLauncher.LOGGER.info("Profiling permission checks, attributing one in " + sampling + " checks to a bundle");
+		return true;
+	}
+
+	private void record(Permission perm, long nanos, boolean denied, Class<?>[] context) {
+		recording.set(Boolean.TRUE);
+		try {
+			final String type = perm.getClass().getName();
+			getStat(byType, type).add(nanos, denied);
+			if (context != null)
+				getStat(byLocation, getLocation(context) + "  " + type).add(nanos, denied);
+		} finally {
+			recording.remove();
+		}
+	}
+
+	private static Stat getStat(ConcurrentMap<String, Stat> stats, String key) {
+		Stat stat = stats.get(key);
+		if (stat == null) {
+			final Stat newStat = new Stat(key);
+			stat = stats.putIfAbsent(key, newStat);
+			if (stat == null)
+				stat = newStat;
+		}
+		return stat;
+	}
+
+	private String getLocation(final Class<?>[] context) {
+		// the permissions of the calling bundles must not apply to the attribution
+		return AccessController.doPrivileged(new PrivilegedAction<String>() {
+
+			@Override
+			public String run() {
+				try {
+					for (Class<?> c : context) {
+						final ClassLoader loader = c.getClassLoader();
+						if (!(loader instanceof BundleReference))
+							continue;
+						String location = locations.get(loader);
+						if (location == null) {
+							final Bundle bundle = ((BundleReference) loader).getBundle();
+							location = bundle != null ? bundle.getLocation() : "(uninstalled bundle)";
+							locations.put(loader, location);
+						}
+						return location;
+					}
+					return "(no bundle)";
+				} catch (RuntimeException e) {
+					return "(unknown)";
+				}
+			}
+		});
+	}
+
+	String getReport() {
+		final long total = calls.get();
+		final StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Permission check profile: %d checks in %.1f s%n", total,
+				(System.nanoTime() - created) / 1e9));
+		appendTable(sb, "By permission type", byType.values(), 1);
+		appendTable(sb, "By bundle location and permission type, estimated from one in " + sampling + " checks",
+				byLocation.values(), sampling);
+		return sb.toString();
+	}
+
+	private static void appendTable(StringBuilder sb, String title, Iterable<Stat> values, int factor) {
+		final List<Stat> stats = new ArrayList<>();
+		for (Stat s : values) {
+			stats.add(s);
+		}
+		// most expensive first
+		Collections.sort(stats, new Comparator<Stat>() {
+
+			@Override
+			public int compare(Stat o1, Stat o2) {
+				return Long.compare(o2.nanos.get(), o1.nanos.get());
+			}
+		});
+		sb.append(String.format("%n%s:%n%12s %12s %10s %10s  %s%n", title, "checks", "total ms", "avg us", "denied", "key"));
+		for (Stat s : stats.subList(0, Math.min(REPORT_ENTRIES, stats.size()))) {
+			final long count = s.count.get();
+			sb.append(String.format("%12d %12.1f %10.2f %10d  %s%n", count * factor, s.nanos.get() * factor / 1e6,
+					count == 0 ? 0 : s.nanos.get() / 1e3 / count, s.denied.get() * factor, s.key));
+		}
+		if (stats.size() > REPORT_ENTRIES)
+			sb.append(String.format("%12s %d more%n", "...", stats.size() - REPORT_ENTRIES));
+	}
+
+	private void writeReport() {
+		// the log handlers may already be closed in a shutdown hook
+		final String report = getReport();
+		System.out.println(report);
+		final Path file = FrameworkUtil.getLauncherDataDir().toPath().resolve(REPORT_FILE);
+		try {
+			Files.createDirectories(file.getParent());
+			Files.write(file, report.getBytes(StandardCharsets.UTF_8));
+		} catch (IOException | SecurityException e) {
+			System.err.println("Could not write " + file + ": " + e);
+		}
+	}
+
+	private static final class Stat {
+
+		private final String key;
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong nanos = new AtomicLong();
+		private final AtomicLong denied = new AtomicLong();
+
+		Stat(String key) {
+			this.key = key;
+		}
+
+		void add(long nanos, boolean denied) {
+			count.incrementAndGet();
+			this.nanos.addAndGet(nanos);
+			if (denied)
+				this.denied.incrementAndGet();
+		}
+
+	}
+
+	/**
+	 * Delegates all checks; the other check methods of {@link SecurityManager} end up in
+	 * {@link #checkPermission(Permission)}.
+	 */
+	private final class ProfilingSecurityManager extends SecurityManager {
+
+		private final SecurityManager delegate;
+
+		ProfilingSecurityManager(SecurityManager delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void checkPermission(Permission perm) {
+			if (recording.get() != null) {
+				delegate.checkPermission(perm);
+				return;
+			}
+			calls.incrementAndGet();
+			// random, a fixed interval would alias with periodic call patterns
+			final Class<?>[] context = ThreadLocalRandom.current().nextInt(sampling) == 0 ? getClassContext() : null;
+			final long start = System.nanoTime();
+			boolean denied = false;
+			try {
+				delegate.checkPermission(perm);
+			} catch (SecurityException e) {
+				denied = true;
+				throw e;
+			} finally {
+				record(perm, System.nanoTime() - start, denied, context);
+			}
+		}
+
+		@Override
+		public void checkPermission(Permission perm, Object context) {
+			if (recording.get() != null) {
+				delegate.checkPermission(perm, context);
+				return;
+			}
+			calls.incrementAndGet();
+			final long start = System.nanoTime();
+			boolean denied = false;
+			try {
+				delegate.checkPermission(perm, context);
+			} catch (SecurityException e) {
+				denied = true;
+				throw e;
+			} finally {
+				// checked on behalf of another context, the call stack does not tell the bundle
+				record(perm, System.nanoTime() - start, denied, null);
+			}
+		}
+
+		@Override
+		public Object getSecurityContext() {
+			return delegate.getSecurityContext();
+		}
+
+	}
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.ogema.launcher.OgemaLauncher;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the {@link LauncherMetrics} and basic JVM statistics in the Prometheus text
+ * format at <code>http://&lt;address&gt;:&lt;port&gt;/metrics</code>. Binds to the loopback
+ * interface, unless the system property {@value #ADDRESS_PROPERTY} specifies another address.
+ */
+class PrometheusEndpoint implements HttpHandler {
+
+	static final String ADDRESS_PROPERTY = "org.ogema.launcher.metrics.address";
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final LauncherMetrics metrics;
+	private final int port;
+
+	PrometheusEndpoint(LauncherMetrics metrics, int port) {
+		this.metrics = metrics;
+		this.port = port;
+	}
+
+	void start() throws IOException {
+		final InetSocketAddress address = new InetSocketAddress(System.getProperty(ADDRESS_PROPERTY, "127.0.0.1"), port);
+		final HttpServer server = HttpServer.create(address, 0);
+		server.createContext("/metrics", this);
+		// a single daemon thread is sufficient for the occasional scrape
+		server.setExecutor(Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread t = new Thread(r, "launcher-metrics");
+				t.setDaemon(true);
+				return t;
+			}
+		}));
+		server.start();
+		OgemaLauncher.LOGGER.info("Launcher metrics available at http://" + address.getHostString() + ":"
+				+ server.getAddress().getPort() + "/metrics");
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			final byte[] body = format().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	String format() {
+		final StringBuilder sb = new StringBuilder(2048);
+		header(sb, "ogema_launcher_phase_seconds", "gauge", "Duration of the launch phases of the last (re)start");
+		for (Map.Entry<String, Long> e : metrics.getPhaseDurations().entrySet()) {
+			sample(sb, "ogema_launcher_phase_seconds", "phase", e.getKey(), e.getValue() / 1000.0);
+		}
+		header(sb, "ogema_launcher_bundles", "gauge", "Number of bundles by state");
+		for (Map.Entry<String, Integer> e : metrics.getBundleStates().entrySet()) {
+			sample(sb, "ogema_launcher_bundles", "state", e.getKey(), e.getValue());
+		}
+		header(sb, "ogema_launcher_restarts_total", "counter", "Framework terminations by restart type");
+		for (Map.Entry<String, Long> e : metrics.getRestarts().entrySet()) {
+			sample(sb, "ogema_launcher_restarts_total", "type", e.getKey(), e.getValue());
+		}
+		header(sb, "ogema_launcher_refreshes_total", "counter", "Number of bundle refreshes");
+		sample(sb, "ogema_launcher_refreshes_total", null, null, metrics.getRefreshCount());
+		header(sb, "ogema_launcher_refresh_seconds_total", "counter", "Total duration of bundle refreshes");
+		sample(sb, "ogema_launcher_refresh_seconds_total", null, null, metrics.getRefreshTimeTotal() / 1000.0);
+		header(sb, "ogema_launcher_framework_events_total", "counter", "Framework WARNING and ERROR events");
+		sample(sb, "ogema_launcher_framework_events_total", "type", "warning", metrics.getFrameworkWarnings());
+		sample(sb, "ogema_launcher_framework_events_total", "type", "error", metrics.getFrameworkErrors());
+
+		final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		final MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+		header(sb, "jvm_memory_bytes_used", "gauge", "Used memory");
+		sample(sb, "jvm_memory_bytes_used", "area", "heap", heap.getUsed());
+		sample(sb, "jvm_memory_bytes_used", "area", "nonheap", nonHeap.getUsed());
+		header(sb, "jvm_memory_bytes_committed", "gauge", "Committed memory");
+		sample(sb, "jvm_memory_bytes_committed", "area", "heap", heap.getCommitted());
+		sample(sb, "jvm_memory_bytes_committed", "area", "nonheap", nonHeap.getCommitted());
+		header(sb, "jvm_memory_bytes_max", "gauge", "Maximum memory, -1 if undefined");
+		sample(sb, "jvm_memory_bytes_max", "area", "heap", heap.getMax());
+		header(sb, "jvm_gc_collections_total", "counter", "Garbage collections by collector");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			sample(sb, "jvm_gc_collections_total", "gc", gc.getName(), gc.getCollectionCount());
+		}
+		header(sb, "jvm_gc_collection_seconds_total", "counter", "Time spent in garbage collection by collector");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			sample(sb, "jvm_gc_collection_seconds_total", "gc", gc.getName(), gc.getCollectionTime() / 1000.0);
+		}
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		header(sb, "jvm_threads_current", "gauge", "Current thread count");
+		sample(sb, "jvm_threads_current", null, null, threads.getThreadCount());
+		header(sb, "jvm_threads_daemon", "gauge", "Daemon thread count");
+		sample(sb, "jvm_threads_daemon", null, null, threads.getDaemonThreadCount());
+		header(sb, "jvm_threads_peak", "gauge", "Peak thread count");
+		sample(sb, "jvm_threads_peak", null, null, threads.getPeakThreadCount());
+		header(sb, "process_uptime_seconds", "gauge", "JVM uptime");
+		sample(sb, "process_uptime_seconds", null, null, ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0);
+		return sb.toString();
+	}
+
+	private static void header(StringBuilder sb, String name, String type, String help) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder sb, String name, String label, String labelValue, Number value) {
+		sb.append(name);
+		if (label != null) {
+			sb.append('{').append(label).append("=\"")
+				.append(labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append("\"}");
+		}
+		sb.append(' ');
+		if (value instanceof Double) {
+			sb.append(String.format(Locale.ROOT, "%.3f", value.doubleValue()));
+		} else {
+			sb.append(value.longValue());
+		}
+		sb.append('\n');
+	}
+
+}
@@ -10,6 +10,7 @@ package org.ogema.launcher.resolver;
 
 import java.io.File;
 import java.net.URI;
+import java.util.logging.Level;
 
 import org.ogema.launcher.BundleInfo;
 import org.ogema.launcher.OgemaLauncher;
@@ -37,8 +38,8 @@ public class BundleFileResolver extends BundleResolver {
             URI workingDirURI = new File(System.getProperty("user.dir")).toURI();
             bundleURI = workingDirURI.relativize(bundleURI);
             bi.setPreferredLocation(URI.create("file:./"+bundleURI.toString()));
-			OgemaLauncher.LOGGER.fine(this.getClass().getSimpleName() + ": " +
-					"found " + bi.getPreferredLocation());
+			OgemaLauncher.LOGGER.log(Level.FINE, "{0}: found {1}",
+					new Object[] { getClass().getSimpleName(), bi.getPreferredLocation() });
 			return true;
 		}
 		return false;
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.resolver;
+
+import java.util.regex.Pattern;
+
+import org.ogema.launcher.BundleInfo;
+import org.ogema.launcher.OgemaLauncher;
+
+/**
+ * Stands in for the {@link MavenResolver} in the resolver chain and creates it when the
+ * first bundle actually has to be resolved via maven. Reading the maven settings and
+ * setting up the repository system is comparatively expensive, and not needed at all
+ * for a start with an existing framework storage, where no bundles are resolved.<br>
+ * This class must not reference any maven or aether types, otherwise they would be
+ * loaded together with the chain.
+ */
+public class LazyMavenResolver extends BundleResolver {
+
+	// expected string -> <groupId>:<artifactId>[:<extension>[:<classifier>]]:<version>
+	static final Pattern MAVEN_COORDS = Pattern.compile("([^: ]+):([^: ]+)(:([^: ]*)(:([^: ]+))?)?:([^: ]+)");
+
+	private final boolean offline;
+	private final String repositoryConfig;
+	private MavenResolver delegate;
+
+	protected LazyMavenResolver(boolean offline, String repositoryConfig) {
+		this.offline = offline;
+		this.repositoryConfig = repositoryConfig;
+	}
+
+	@Override
+	protected boolean canHandle(BundleInfo bi) {
+		return isValidCoords(bi);
+	}
+
+	/**
+	 * Shared with the {@link MavenResolver}; located here, since loading the MavenResolver
+	 * class would load maven types.
+	 * @param bi
+	 * @return
+	 * 		true if the bundle has maven coordinates, which are valid; invalid ones are logged
+	 */
+	static boolean isValidCoords(BundleInfo bi) {
+		if (bi == null || bi.getMavenCoords() == null || bi.getMavenCoords().isEmpty())
+			return false;
+		if (MAVEN_COORDS.matcher(bi.getMavenCoords()).matches())
+			return true;
+		OgemaLauncher.LOGGER.warning("MavenResolver: illegal maven coordinates - " +
+				"please check your config file. Maven coordinates: \"" +
+				bi.getMavenCoords() + "\"\nExpected: " + MAVEN_COORDS.pattern());
+		return false;
+	}
+
+	@Override
+	protected boolean resolveBundle(BundleInfo bi) {
+		return getDelegate().resolveBundle(bi);
+	}
+
+	private synchronized MavenResolver getDelegate() {
+		if (delegate == null) {
+			final long start = System.currentTimeMillis();
+			delegate = new MavenResolver(offline, repositoryConfig);
+			OgemaLauncher.LOGGER.fine("Maven resolver initialized in " + (System.currentTimeMillis() - start) + " ms");
+		}
+		return delegate;
+	}
+
+}
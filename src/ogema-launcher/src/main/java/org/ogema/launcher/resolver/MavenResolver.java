@@ -482,19 +482,7 @@ public class MavenResolver extends BundleResolver {
 
 	@Override
 	protected boolean canHandle(BundleInfo bi) {
-		if(bi != null && bi.getMavenCoords() != null && !bi.getMavenCoords().isEmpty()) {
-			// expected string -> <groupId>:<artifactId>[:<extension>[:<classifier>]]:<version>
-			String mavenCoordPattern = "([^: ]+):([^: ]+)(:([^: ]*)(:([^: ]+))?)?:([^: ]+)";
-			if(bi.getMavenCoords().matches(mavenCoordPattern)) {
-				return true;
-			} else {
-				OgemaLauncher.LOGGER.warning(this.getClass().getSimpleName() + ": illegal maven coordinates - " +
-						"please check your config file. Maven coordinates: \"" +
-						bi.getMavenCoords() + "\"\nExpected: " +
-						mavenCoordPattern);
-			}
-		}
-		return false;
+		return LazyMavenResolver.isValidCoords(bi);
 	}
 
 	@Override
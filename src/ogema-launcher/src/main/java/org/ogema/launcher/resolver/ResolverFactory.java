@@ -37,16 +37,17 @@ public class ResolverFactory {
 		BundleResolver.setWorkspaceResolver(new WorkspaceBundleResolver(workspaceLoc));
 
 		// highest priority has the maven resolver so he is the first in
-		// our chain of responsibility:
+		// our chain of responsibility; it is only created once a bundle
+		// has to be resolved via maven:
 		boolean offline = options.hasOption(LauncherConstants.KnownProgOptions.OFFLINE.getSwitch());
         String repCfgFile = options.getOptionValue(LauncherConstants.KnownProgOptions.REPOSITORIES.getLongSwitch(), null);
-		BundleResolver result = new MavenResolver(offline, repCfgFile);
+		BundleResolver result = new LazyMavenResolver(offline, repCfgFile);
 		
 		// result must not change... use result.setNext(...).setNext(...) ... 
 		// to add new resolver to this chain otherwise the first resolver
 		// that was stored in result won't be involved. Use a "BundleResolver tmp"
 		// var if necessary ...
-		result.setNext(new BundleFileResolver());
+		result.setNext(new BundleFileResolver()).setNext(new UrlBundleResolver(offline));
 
 		return result;
 	}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.resolver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.ogema.launcher.BundleInfo;
+import org.ogema.launcher.OgemaLauncher;
+
+/**
+ * Downloads bundles given by URL ({@link BundleInfo#getRemoteLocation()}) to their
+ * file location. Only invoked if the file does not exist yet, so a bundle is downloaded
+ * once; delete the file to download it again.
+ */
+public class UrlBundleResolver extends BundleFileResolver {
+
+	private static final int TIMEOUT = 30000;
+	private final boolean offline;
+
+	protected UrlBundleResolver(boolean offline) {
+		this.offline = offline;
+	}
+
+	@Override
+	protected boolean canHandle(BundleInfo bi) {
+		return bi != null && bi.getRemoteLocation() != null && bi.getFileLocation() != null;
+	}
+
+	@Override
+	protected boolean resolveBundle(BundleInfo bi) {
+		final File target = bi.getFileLocation();
+		if (!target.exists()) {
+			if (offline) {
+				OgemaLauncher.LOGGER.warning("Offline mode, cannot download " + bi.getRemoteLocation());
+				return false;
+			}
+			try {
+				download(bi, target.toPath());
+			} catch (IOException | RuntimeException e) {
+				OgemaLauncher.LOGGER.warning("Could not download bundle from " + bi.getRemoteLocation() + ": " + e);
+				return false;
+			}
+		}
+		return super.resolveBundle(bi);
+	}
+
+	private static void download(BundleInfo bi, Path target) throws IOException {
+		OgemaLauncher.LOGGER.info("Downloading " + bi.getRemoteLocation());
+		final Path dir = target.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		// download to a temporary file, so that an interrupted download is not mistaken for the bundle
+		final Path tmp = Files.createTempFile(dir, target.getFileName().toString(), ".part");
+		try {
+			final URLConnection conn = bi.getRemoteLocation().toURL().openConnection();
+			conn.setConnectTimeout(TIMEOUT);
+			conn.setReadTimeout(TIMEOUT);
+			try (InputStream in = conn.getInputStream()) {
+				Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+			}
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+}
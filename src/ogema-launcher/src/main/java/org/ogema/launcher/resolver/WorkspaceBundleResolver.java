@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 
 import org.ogema.launcher.BundleInfo;
 import org.ogema.launcher.LauncherConstants.KnownProgOptions;
@@ -70,9 +71,8 @@ public class WorkspaceBundleResolver extends BundleResolver {
 				return false;
 			}
 			
-			OgemaLauncher.LOGGER.fine("Using workspace location for bundle "
-					+ bi.getSymbolicName() + "-" + bi.getVersion() + ": "
-					+ bi.getWorkspaceLocation());
+			OgemaLauncher.LOGGER.log(Level.FINE, "Using workspace location for bundle {0}-{1}: {2}",
+					new Object[] { bi.getSymbolicName(), bi.getVersion(), bi.getWorkspaceLocation() });
 			return true;
 		}
 		
@@ -154,10 +154,8 @@ public class WorkspaceBundleResolver extends BundleResolver {
 				for(File binDir : binDirectories) {
 					BundleInfo bi = BundleInfoUtil.getBundleInfoFromWorkspaceLoc(binDir);
 					if(bi != null) {
-						OgemaLauncher.LOGGER.finer("Workspace location found for " +
-								"bundle: " + bi.getSymbolicName() + "-" + 
-								bi.getVersion() + ". Location: " +
-								bi.getWorkspaceLocation());
+						OgemaLauncher.LOGGER.log(Level.FINER, "Workspace location found for bundle: {0}-{1}. Location: {2}",
+								new Object[] { bi.getSymbolicName(), bi.getVersion(), bi.getWorkspaceLocation() });
 						List<BundleInfo> list = workspaceBundles.get(bi.getSymbolicName());
 						if(list == null) {
 							list = new ArrayList<BundleInfo>();
@@ -18,14 +18,26 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLDecoder;
-import java.util.ArrayDeque;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collection;
-import java.util.Deque;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.maven.cli.MavenCli;
@@ -74,10 +86,25 @@ public abstract class AbstractPackagingUtil {
 	 * jar (as in manifest).
 	 */
 	public static String OFFLINE_LIBS = "offline_libs";
+	/**
+	 * Build property: if "true", build a reproducible archive: entries are sorted
+	 * by name, timestamps are set to {@link #TIMESTAMP}, and permissions and
+	 * ownership are normalized. Default: false.
+	 */
+	public static String REPRODUCIBLE = "reproducible";
+	/**
+	 * Build property: Timestamp in seconds since the epoch used for all entries of a
+	 * reproducible archive. Default: the environment variable SOURCE_DATE_EPOCH if set,
+	 * otherwise 1980-01-01T00:00:00Z.
+	 */
+	public static String TIMESTAMP = "timestamp";
+	private static final long DEFAULT_TIMESTAMP = 315532800L;
 	private final Properties props;
+	// null: not reproducible
+	private Long entryTime;
 
 	// TODO exclude javadoc and sources ...
-	private static final String LAUNCHER_REGEX = "(?=(.*ogema-launcher.*\\.jar))(^(?!.*(javadoc|sources)).*$)";
+	private static final Pattern LAUNCHER_PATTERN = Pattern.compile("(?=(.*ogema-launcher.*\\.jar))(^(?!.*(javadoc|sources)).*$)");
     
     protected final String outputFilename;
     
@@ -106,29 +133,19 @@ public abstract class AbstractPackagingUtil {
 	 */
 	public void build(boolean offlinebuild, Set<BundleInfo> bundles, boolean verbose)
 			throws IOException, URISyntaxException {
-		// FIXME: only zip those files in bin that are also in config ... for now
-		// all are added ...
-		copyBundlesToBuildLocation(bundles);
-
 		File propsFile = new File("build.properties");
 		if (propsFile.exists()) {
 			props.load(new FileInputStream(propsFile));
 		}
-
-		final File base = new File(".");
-		Collection<File> files = collectFiles(base);
-
-		OgemaLauncher.LOGGER.fine(files.toString());
-
-		String baseString = base.getAbsolutePath();
-		for (File f : files) {
-			OgemaLauncher.LOGGER.fine(f.getAbsolutePath().substring(baseString.length() + 1));
-		}
+		entryTime = Boolean.parseBoolean(props.getProperty(REPRODUCIBLE, "false").trim()) ? getReproducibleTimestamp() : null;
+		// FIXME: only zip those files in bin that are also in config ... for now
+		// all are added ...
+		copyBundlesToBuildLocation(bundles, entryTime);
 
 		final String zipPrefix = props.getProperty(ZIP_PREFIX);
 
         String filename = outputFilename != null ? outputFilename : getFilename(props.getProperty(ARCHIVE_NAME));
-		File archive = new File(filename).getCanonicalFile();
+		final File archive = new File(filename).getCanonicalFile();
         if (archive.exists() && archive.isFile()) {
             archive.delete();
         }
@@ -138,21 +155,47 @@ public abstract class AbstractPackagingUtil {
 		try {
 			fos = new FileOutputStream(archive);
 			os = createStream(fos);
+			final ArchiveOutputStream out = os;
 
-			File launcherFileRundir = null;
-			for (File f : files) {
-				// check if launcher already is in rundir
-				if(f.getName().matches(LAUNCHER_REGEX)) {
-					// don't add to zip yet
-					launcherFileRundir = f;
-					continue;
+			final File[] launcherInRundir = new File[1];
+			final List<Path> sorted = isReproducible() ? new ArrayList<Path>() : null;
+			final Path base = Paths.get(".").toAbsolutePath().normalize();
+			walkFiles(base, new FileCallback() {
+				
+				@Override
+				public void accept(Path file, String relativeName) throws IOException {
+					final String name = file.getFileName().toString();
+					// check if launcher already is in rundir
+					if (LAUNCHER_PATTERN.matcher(name).matches()) {
+						// don't add to zip yet
+						launcherInRundir[0] = file.toFile();
+						return;
+					}
+					// only files with the archive's name need the (expensive) file system check 
+					if (name.equals(archive.getName()) && Files.isSameFile(file, archive.toPath())) {
+						return;
+					}
+					if (sorted != null) {
+						sorted.add(file);
+						return;
+					}
+					writeEntry(out, zipPrefix + relativeName, file.toFile());
+				}
+			});
+			if (sorted != null) {
+				Collections.sort(sorted, new Comparator<Path>() {
+					
+					@Override
+					public int compare(Path o1, Path o2) {
+						return relativeName(base, o1).compareTo(relativeName(base, o2));
+					}
+				});
+				for (Path file : sorted) {
+					final String relname = relativeName(base, file);
+					writeEntry(os, zipPrefix + relname, file.toFile());
 				}
-                if (f.getCanonicalFile().equals(archive)) {
-                    continue;
-                }
-				String relname = f.getAbsolutePath().substring(baseString.length() + 1);
-				writeEntry(os, zipPrefix + relname, f);
 			}
+			final File launcherFileRundir = launcherInRundir[0];
 
 			// add launcher and launcher libs
 			String path = AbstractPackagingUtil.class.getProtectionDomain().getCodeSource().getLocation().getPath();
@@ -212,7 +255,7 @@ public abstract class AbstractPackagingUtil {
 						File[] launcher = launcherFile.getParentFile().listFiles(new FilenameFilter() {
 							@Override
 							public boolean accept(File dir, String name) {
-								return name.matches(LAUNCHER_REGEX);
+								return LAUNCHER_PATTERN.matcher(name).matches();
 							}
 						});
 						if(launcher.length > 1) {
@@ -254,6 +297,19 @@ public abstract class AbstractPackagingUtil {
 
 	public static void copyBundlesToBuildLocation(Set<BundleInfo> bundles)
 			throws IOException, URISyntaxException {
+		copyBundlesToBuildLocation(bundles, null);
+	}
+
+	/**
+	 * @param bundles
+	 * @param entryTime
+	 * 		timestamp in millis for all entries of jars built from workspace bundles,
+	 * 		or null to use the file modification times
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	public static void copyBundlesToBuildLocation(Set<BundleInfo> bundles, Long entryTime)
+			throws IOException, URISyntaxException {
 		for(Iterator<BundleInfo> iter = bundles.iterator(); iter.hasNext();) {
 			BundleInfo bi = iter.next();
 			if(!bi.isResolved()) {
@@ -283,16 +339,14 @@ public abstract class AbstractPackagingUtil {
 						&& preferredLocation.getScheme().equals("reference")) {
 					// bundle that should be added to zip is in workspace -> build jar
 					// remove "reference:" from uri because it is OSGi specific
-					OgemaLauncher.LOGGER.finer("creating jar at " +
-							target.getAbsolutePath());
+					OgemaLauncher.LOGGER.log(Level.FINER, "creating jar at {0}", target);
 					String adjustedUri =
 							preferredLocation.toString().replace("reference:", "");
 					preferredLocation = new URI(adjustedUri);
-					JarFileBuilder.buildJar(new File(preferredLocation), target);
+					JarFileBuilder.buildJar(new File(preferredLocation), target, entryTime);
 				} else {
 					// preferred location references a jar file -> copy it to build location
-					OgemaLauncher.LOGGER.finer("copying maven artifact to " +
-							target.getAbsolutePath());
+					OgemaLauncher.LOGGER.log(Level.FINER, "copying maven artifact to {0}", target);
 					if(preferredLocation.isOpaque()) {
 						// file util will throw an exception if uri is opaque:
 						preferredLocation = new URL(new File(".").toURI().toURL(), preferredLocation.toString()).toURI();
@@ -306,6 +360,51 @@ public abstract class AbstractPackagingUtil {
     
     protected abstract ArchiveOutputStream createStream(OutputStream os) throws IOException;
 
+    /**
+     * @return true if a reproducible archive is being built, see {@link #REPRODUCIBLE}
+     */
+    protected boolean isReproducible() {
+        return entryTime != null;
+    }
+
+    /**
+     * @return the timestamp in millis to use for all entries of a reproducible archive,
+     * or null if the archive is not reproducible
+     */
+    protected Long getEntryTime() {
+        return entryTime;
+    }
+
+    private long getReproducibleTimestamp() {
+        String ts = props.getProperty(TIMESTAMP);
+        if (ts == null) {
+            ts = System.getenv("SOURCE_DATE_EPOCH");
+        }
+        if (ts == null || ts.trim().isEmpty()) {
+            return DEFAULT_TIMESTAMP * 1000;
+        }
+        try {
+            return Long.parseLong(ts.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid archive timestamp " + ts + ", expected seconds since the epoch");
+        }
+    }
+
+    /**
+     * Zip entries store the local date and time (DOS format), so the same instant would result
+     * in different archives on hosts in different time zones. Returns the time that
+     * has the UTC date and time fields of <code>utcMillis</code> in the local time zone.
+     */
+    static long toZipTime(long utcMillis) {
+        final Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        utc.setTimeInMillis(utcMillis);
+        final Calendar local = Calendar.getInstance();
+        local.clear();
+        local.set(utc.get(Calendar.YEAR), utc.get(Calendar.MONTH), utc.get(Calendar.DAY_OF_MONTH),
+                utc.get(Calendar.HOUR_OF_DAY), utc.get(Calendar.MINUTE), utc.get(Calendar.SECOND));
+        return local.getTimeInMillis();
+    }
+
 	protected abstract void writeEntry(ArchiveOutputStream os, String filename, File file) throws IOException;
     
     protected abstract String getFilename(String basename);
@@ -316,41 +415,90 @@ public abstract class AbstractPackagingUtil {
                 filename.endsWith("bat") || filename.endsWith("cmd");
     }
 
-	public Collection<File> collectFiles(File base) {
-		Collection<File> v = new ArrayList<>(250);
-
-		Deque<File> subdirStack = new ArrayDeque<>();
-
-		/* match file names (NOT entire paths!) against these patterns: */
-		List<Pattern> dontIncludePatterns = new ArrayList<>();
-		for (String p : props.getProperty(EXCLUDE_PATTERNS).split("\\s+")) {
-			dontIncludePatterns.add(Pattern.compile(p));
-		}
-		dontIncludePatterns.add(Pattern.compile(getFilename(props.getProperty(ARCHIVE_NAME, "ogema"))));
-		dontIncludePatterns.add(Pattern.compile(LauncherConstants.LOCK_FILE));
-
-		subdirStack.push(base);
-		while (!subdirStack.isEmpty()) {
-			File dir = subdirStack.pop();
+	/**
+	 * Receives the files found by {@link AbstractPackagingUtil#walkFiles(Path, FileCallback)}.
+	 */
+	protected static interface FileCallback {
+		
+		/**
+		 * @param file
+		 * @param relativeName
+		 * 		path relative to the walk base, with '/' as separator 
+		 * @throws IOException
+		 */
+		void accept(Path file, String relativeName) throws IOException;
+		
+	}
 
-			for (File f : dir.listFiles()) {
-				boolean include = true;
-				for (Pattern p : dontIncludePatterns) {
-					if (p.matcher(f.getName()).matches()) {
-						include = false;
-						break;
-					}
-				}
-				if (include) {
-					if (f.isDirectory()) {
-						subdirStack.push(f);
-					} else {
-						v.add(f);
-					}
+	public Collection<File> collectFiles(File base) {
+		final Collection<File> v = new ArrayList<>(250);
+		try {
+			walkFiles(base.toPath().toAbsolutePath().normalize(), new FileCallback() {
+				
+				@Override
+				public void accept(Path file, String relativeName) {
+					v.add(file.toFile());
 				}
-			}
+			});
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
-
 		return v;
 	}
+	
+	/**
+	 * Walks the directory tree below <code>base</code> and passes all files not
+	 * excluded via {@link #EXCLUDE_PATTERNS} to the callback, without 
+	 * collecting them first. Excluded directories are not entered.
+	 * @param base
+	 * @param callback
+	 * @throws IOException
+	 */
+	protected void walkFiles(final Path base, final FileCallback callback) throws IOException {
+		final Matcher excluded = getExclusionPattern().matcher("");
+		Files.walkFileTree(base, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+			
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!dir.equals(base) && excluded.reset(dir.getFileName().toString()).matches())
+					return FileVisitResult.SKIP_SUBTREE;
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (!excluded.reset(file.getFileName().toString()).matches())
+					callback.accept(file, relativeName(base, file));
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+				OgemaLauncher.LOGGER.warning("Cannot read " + file + ", not added to archive: " + exc);
+				return FileVisitResult.CONTINUE;
+			}
+			
+		});
+	}
+	
+	/*
+	 * A single alternation of all exclusion patterns, so each file name is
+	 * matched once instead of against every pattern in turn.
+	 * Matches only file names, not entire paths.
+	 */
+	private Pattern getExclusionPattern() {
+		final StringBuilder sb = new StringBuilder();
+		for (String p : props.getProperty(EXCLUDE_PATTERNS).split("\\s+")) {
+			if (p.isEmpty())
+				continue;
+			sb.append("(?:").append(p).append(")|");
+		}
+		sb.append("(?:").append(getFilename(props.getProperty(ARCHIVE_NAME, "ogema"))).append(")|");
+		sb.append("(?:").append(LauncherConstants.LOCK_FILE).append(')');
+		return Pattern.compile(sb.toString());
+	}
+	
+	private static String relativeName(Path base, Path file) {
+		return base.relativize(file).toString().replace(File.separatorChar, '/');
+	}
 }
@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Console handler that does not block the logging thread on the output. Records are formatted
+ * in the logging thread, which keeps the source and {@link LogContext} information correct, and
+ * passed to a daemon writer thread through a bounded buffer. If the buffer is full, records
+ * below WARNING are dropped and the number of dropped records is reported in the output;
+ * warnings and errors wait for space instead. The buffer is written completely on {@link #flush()}
+ * and {@link #close()}, which the log manager calls on VM shutdown.
+ */
+public class AsyncLogHandler extends Handler {
+
+	public static final String BUFFER_PROPERTY = "org.ogema.launcher.log.buffer";
+	private static final int DEF_CAPACITY = 4096;
+	private static final long FLUSH_TIMEOUT = 2000;
+
+	private final OutputStream out;
+	// formatted records, and CountDownLatches for flush requests
+	private final BlockingQueue<Object> queue;
+	private final AtomicLong dropped = new AtomicLong();
+	private final Thread writerThread;
+	private volatile boolean closed;
+	// writer thread only
+	private Writer writer;
+
+	/**
+	 * @param out
+	 * 		not closed by this handler
+	 */
+	public AsyncLogHandler(OutputStream out) {
+		this.out = out;
+		this.queue = new ArrayBlockingQueue<>(Math.max(16, Integer.getInteger(BUFFER_PROPERTY, DEF_CAPACITY)));
+		this.writerThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "launcher-log");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	@Override
+	public void publish(LogRecord record) {
+		if (closed || !isLoggable(record))
+			return;
+		final String msg;
+		try {
+			msg = getFormatter().format(record);
+		} catch (RuntimeException e) {
+			reportError(null, e, ErrorManager.FORMAT_FAILURE);
+			return;
+		}
+		if (record.getLevel().intValue() < Level.WARNING.intValue()) {
+			if (!queue.offer(msg))
+				dropped.incrementAndGet();
+			return;
+		}
+		try {
+			queue.put(msg);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits until the records published so far have been written.
+	 */
+	@Override
+	public void flush() {
+		if (Thread.currentThread() == writerThread || !writerThread.isAlive())
+			return;
+		final CountDownLatch written = new CountDownLatch(1);
+		try {
+			if (queue.offer(written, FLUSH_TIMEOUT, TimeUnit.MILLISECONDS))
+				written.await(FLUSH_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		flush();
+		closed = true;
+		writerThread.interrupt();
+	}
+
+	private void writeLoop() {
+		while (true) {
+			Object next;
+			try {
+				next = queue.take();
+			} catch (InterruptedException e) {
+				if (closed)
+					break;
+				continue;
+			}
+			do {
+				write(next);
+			} while ((next = queue.poll()) != null);
+			flushWriter();
+		}
+		// published concurrently to close()
+		Object next;
+		while ((next = queue.poll()) != null) {
+			write(next);
+		}
+		flushWriter();
+	}
+
+	private void write(Object next) {
+		if (next instanceof CountDownLatch) {
+			flushWriter();
+			((CountDownLatch) next).countDown();
+			return;
+		}
+		try {
+			if (writer == null)
+				writer = createWriter();
+			final long lost = dropped.getAndSet(0);
+			if (lost > 0)
+				writer.write(String.format("... %d log records dropped, the log buffer was full%n", lost));
+			writer.write((String) next);
+		} catch (IOException e) {
+			reportError(null, e, ErrorManager.WRITE_FAILURE);
+		}
+	}
+
+	private Writer createWriter() {
+		final String encoding = getEncoding();
+		if (encoding != null) {
+			try {
+				return new OutputStreamWriter(out, encoding);
+			} catch (UnsupportedEncodingException e) {
+				reportError(null, e, ErrorManager.OPEN_FAILURE);
+			}
+		}
+		return new OutputStreamWriter(out);
+	}
+
+	private void flushWriter() {
+		if (writer == null)
+			return;
+		try {
+			writer.flush();
+		} catch (IOException e) {
+			reportError(null, e, ErrorManager.FLUSH_FAILURE);
+		}
+	}
+
+}
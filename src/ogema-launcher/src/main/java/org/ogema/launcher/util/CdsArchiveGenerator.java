@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ogema.launcher.LauncherConstants.KnownProgOptions;
+import org.ogema.launcher.OgemaLauncher;
+
+/**
+ * Creates a dynamic class data sharing (AppCDS) archive, by running a training launch in a
+ * child VM with <code>-XX:ArchiveClassesAtExit</code>. The child starts the framework as usual
+ * and stops it once the configured start level has been reached; the classes loaded up to this
+ * point (launcher, Maven resolver and framework classes) end up in the archive.<br>
+ * The archive is used by starting the VM with <code>-XX:SharedArchiveFile=&lt;archive&gt;</code> and
+ * the same class path as the training run; the VM ignores an archive that does not match
+ * the class path or the Java version. Requires Java 13 or later.
+ */
+public class CdsArchiveGenerator {
+
+	/** System property set for the training launch */
+	public static final String TRAINING_PROPERTY = "org.ogema.launcher.cds.training";
+	public static final String DEFAULT_ARCHIVE = "ogema.jsa";
+	private static final int MIN_JAVA_VERSION = 13;
+
+	public static boolean isTrainingRun() {
+		return Boolean.getBoolean(TRAINING_PROPERTY);
+	}
+
+	/**
+	 * @param args
+	 * 		the launcher arguments, the generate-cds option is removed
+	 * @param archive
+	 * 		the archive file, or null for the default
+	 * @return
+	 * 		the exit code of the training launch, or -1 if it could not be started
+	 */
+	public static int generate(String[] args, String archive) {
+		final int javaVersion = getJavaVersion();
+		if (javaVersion < MIN_JAVA_VERSION) {
+			OgemaLauncher.LOGGER.severe("Dynamic CDS archives require Java " + MIN_JAVA_VERSION + " or later, running on "
+					+ System.getProperty("java.specification.version"));
+			return -1;
+		}
+		final File target = new File(archive != null ? archive : DEFAULT_ARCHIVE).getAbsoluteFile();
+		final List<String> cmd = new ArrayList<>();
+		cmd.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			// an archive in use must not be combined with the creation of a new one
+			if (!arg.startsWith("-XX:SharedArchiveFile") && !arg.startsWith("-XX:ArchiveClassesAtExit")
+					&& !arg.startsWith("-Xshare"))
+				cmd.add(arg);
+		}
+		cmd.add("-XX:ArchiveClassesAtExit=" + target.getPath());
+		cmd.add("-D" + TRAINING_PROPERTY + "=true");
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add(OgemaLauncher.class.getName());
+		cmd.addAll(removeOption(args));
+		OgemaLauncher.LOGGER.info("Starting training launch for CDS archive " + target);
+		OgemaLauncher.LOGGER.fine("Command: " + cmd);
+		final long start = System.currentTimeMillis();
+		try {
+			final Process p = new ProcessBuilder(cmd).inheritIO().start();
+			final int result = p.waitFor();
+			if (result == 0 && target.isFile()) {
+				OgemaLauncher.LOGGER.info(String.format("CDS archive %s created (%d kB) in %ds; start the launcher with -XX:SharedArchiveFile=%s",
+						target, target.length() / 1024, (System.currentTimeMillis() - start) / 1000, target));
+			} else {
+				OgemaLauncher.LOGGER.warning("Training launch exited with code " + result + ", archive exists: " + target.isFile());
+			}
+			return result;
+		} catch (IOException e) {
+			OgemaLauncher.LOGGER.severe("Could not start training launch: " + e);
+			return -1;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return -1;
+		}
+	}
+
+	private static List<String> removeOption(String[] args) {
+		final String shortSwitch = "-" + KnownProgOptions.GENERATE_CDS.getSwitch();
+		final String longSwitch = "--" + KnownProgOptions.GENERATE_CDS.getLongSwitch();
+		final List<String> result = new ArrayList<>(args.length);
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if (arg.equals(shortSwitch) || arg.equals(longSwitch)) {
+				// optional argument
+				if (i + 1 < args.length && !args[i + 1].startsWith("-"))
+					i++;
+				continue;
+			}
+			if (arg.startsWith(longSwitch + "="))
+				continue;
+			result.add(arg);
+		}
+		return result;
+	}
+
+	private static int getJavaVersion() {
+		final String version = System.getProperty("java.specification.version", "1.7");
+		try {
+			return version.startsWith("1.") ? Integer.parseInt(version.substring(2)) : Integer.parseInt(version);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+}
@@ -1,86 +1,181 @@
 package org.ogema.launcher.util;
 
+import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.MalformedURLException;
 import java.net.URI;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
-import java.util.logging.Level;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.IOUtils;
 import org.ogema.launcher.BundleInfo;
 import org.ogema.launcher.OgemaLauncher;
 import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
 
+/**
+ * Creates deployment packages according to the OSGi Deployment Admin specification. If a
+ * base package is configured (property {@value #BASE_PACKAGE}), a fix-pack is generated that
+ * only contains the bundles that differ from the base package; all other bundles are
+ * listed with a <code>DeploymentPackage-Missing</code> header.
+ */
 public class DeploymentPackageBuilder {
 	
-	private static final Map<String, ?> PROPS = Collections.singletonMap("create", "true");
-	private static final String LAUNCHER_TEMP_DIR = "data/launcherTemp";
+	/**
+	 * Configuration property: symbolic name of the deployment package, default: "gateway".
+	 */
+	public static final String PACKAGE_NAME = "org.ogema.launcher.dp.name";
+	/**
+	 * Configuration property: version of the deployment package. Default: "0.0.0", or the
+	 * version of the base package with incremented micro version if a fix-pack is built.
+	 */
+	public static final String PACKAGE_VERSION = "org.ogema.launcher.dp.version";
+	/**
+	 * Configuration property: path to the base deployment package a fix-pack is computed against.
+	 */
+	public static final String BASE_PACKAGE = "org.ogema.launcher.dp.base";
+
+	private static final String DEFAULT_PACKAGE_NAME = "gateway";
+	private static final String DEFAULT_PACKAGE_VERSION = "0.0.0";
+	private static final String DP_SYMBOLICNAME = "DeploymentPackage-SymbolicName";
+	private static final String DP_VERSION = "DeploymentPackage-Version";
+	private static final String DP_FIXPACK = "DeploymentPackage-FixPack";
+	private static final String DP_MISSING = "DeploymentPackage-Missing";
+	/** 
+	 * Hex encoded SHA-256 digest of the original bundle file, used to detect unchanged 
+	 * bundles when building a fix-pack 
+	 */
+	private static final String CONTENT_DIGEST = "OGEMA-Content-Digest";
+
 	
 	public static Path build(Set<BundleInfo> bundles, boolean tagSnapshots, boolean isDiff) throws IOException {
-		Path dest = getNewFile();
-		final URI uri = URI.create("jar:" + dest.toUri());
+		return build(bundles, tagSnapshots, isDiff, Collections.<String, String> emptyMap());
+	}
+	
+	/**
+	 * @param bundles
+	 * @param tagSnapshots
+	 * 		replace SNAPSHOT qualifiers by the current date and time
+	 * @param isDiff
+	 * 		build a fix-pack against the base package configured via {@value #BASE_PACKAGE}
+	 * @param properties
+	 * 		configuration properties, see {@link #PACKAGE_NAME}, {@link #PACKAGE_VERSION} and {@link #BASE_PACKAGE}
+	 * @return
+	 * 		the deployment package file
+	 * @throws IOException
+	 */
+	public static Path build(Set<BundleInfo> bundles, boolean tagSnapshots, boolean isDiff, Map<String, String> properties) 
+			throws IOException {
+		final String basePackage = properties.get(BASE_PACKAGE);
+		BasePackage base = null;
+		if (isDiff) {
+			if (basePackage == null)
+				throw new IOException("Cannot build a fix-pack: no base deployment package configured (" + BASE_PACKAGE + ")");
+			base = BasePackage.read(Paths.get(basePackage));
+		}
+		final String name = getProperty(properties, PACKAGE_NAME, base != null ? base.name : DEFAULT_PACKAGE_NAME);
+		String dpVersion = properties.get(PACKAGE_VERSION);
+		if (dpVersion == null) {
+			dpVersion = base != null ? new Version(base.version.getMajor(), base.version.getMinor(), base.version.getMicro() + 1).toString()
+					: DEFAULT_PACKAGE_VERSION;
+		} 
+		if (base != null && base.version.compareTo(new Version(dpVersion)) >= 0)
+			OgemaLauncher.LOGGER.warning("Fix-pack version " + dpVersion + " is not higher than the base package version " + base.version);
+		if (base != null && !base.name.equals(name))
+			OgemaLauncher.LOGGER.warning("Fix-pack name " + name + " differs from the base package name " + base.name);
+		
+		final Path dest = getNewFile();
 		String dateString = null;
-		Path tempFolder = null;
 		if (tagSnapshots) {
 			Date d = new Date(System.currentTimeMillis());
 			SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMddHHmmss");
 			dateString = sdf.format(d);
-			Path p = Paths.get(LAUNCHER_TEMP_DIR);
-			tempFolder = Files.createDirectories(p);
 		}
-		try (FileSystem jarfs = FileSystems.newFileSystem(uri, PROPS)) {
+		int missing = 0;
+		try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(dest.toFile())) {
 			final Manifest manifest = new Manifest();
 		    Attributes mainAttributes = manifest.getMainAttributes();
 		    mainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
-		    mainAttributes.putValue("DeploymentPackage-SymbolicName", "gateway"); // XXX?
-		    mainAttributes.putValue("DeploymentPackage-Version", "0.0.0"); // XXX?
+		    mainAttributes.putValue(DP_SYMBOLICNAME, name);
+		    mainAttributes.putValue(DP_VERSION, dpVersion);
+		    if (base != null)
+		    	mainAttributes.putValue(DP_FIXPACK, "[" + base.version + "," + base.version + "]");
 		    Map<String,Attributes> entries = manifest.getEntries();
+		    final Map<BundleInfo, String> included = new HashMap<>(bundles.size());
 		    for (BundleInfo bi : bundles) {
-		    	Attributes att = new Attributes(2);
+		    	final String digest = digest(bi.getPreferredLocation());
+		    	final BaseEntry baseEntry = base != null ? base.bundles.get(bi.getSymbolicName()) : null;
+		    	Attributes att = new Attributes(4);
 		    	att.putValue(Constants.BUNDLE_SYMBOLICNAME, bi.getSymbolicName());
+		    	att.putValue(CONTENT_DIGEST, digest);
+		    	if (baseEntry != null && digest.equals(baseEntry.digest)) {
+		    		// unchanged with respect to the base package; keep the version the target already has
+		    		att.putValue(Constants.BUNDLE_VERSION, baseEntry.version);
+		    		att.putValue(DP_MISSING, "true");
+		    		entries.put(baseEntry.path, att);
+		    		missing++;
+		    		continue;
+		    	}
 		    	String version = bi.getVersion().toString();
 		    	if (tagSnapshots) 
 		    		version = adaptVersion(version, dateString);
 	    		att.putValue(Constants.BUNDLE_VERSION, version);
-		    	entries.put(bi.getSymbolicName() + "-" + version + ".jar", att);
-		    }
-		    Files.createDirectory(jarfs.getPath("META-INF/"));
-		    try (OutputStream os = Files.newOutputStream(jarfs.getPath("META-INF/MANIFEST.MF"))) {
-		        manifest.write(os);
+	    		final String path = bi.getSymbolicName() + "-" + version + ".jar";
+		    	entries.put(path, att);
+		    	included.put(bi, path);
 		    }
+		    // the deployment admin requires the manifest to be the first entry
+		    out.putArchiveEntry(new ZipArchiveEntry(JarFile.MANIFEST_NAME));
+		    manifest.write(out);
+		    out.closeArchiveEntry();
 		    for (BundleInfo bi : bundles) {
-		    	URI loc = bi.getPreferredLocation();
-		    	String version = bi.getVersion().toString();
-		    	InputStream is;
-		    	if (tagSnapshots && bi.getVersion().getQualifier().equals("SNAPSHOT")) {
-		    		is = tagSnapshot(loc, tempFolder, dateString);
-		    		version = adaptVersion(version, dateString);
-		    	}
-		    	else
-		    		is = loc.toURL().openStream();
-		    	try {
-		    		Files.copy(is, jarfs.getPath(bi.getSymbolicName() + "-" + version + ".jar"));
-		    	} finally {
-		    		try {
-		    			is.close();
-		    		} catch (Exception ignore) {}
+		    	final String path = included.get(bi);
+		    	if (path == null)
+		    		continue;
+		    	final URI loc = bi.getPreferredLocation();
+		    	out.putArchiveEntry(new ZipArchiveEntry(path));
+		    	if (tagSnapshots && bi.getVersion().getQualifier().equals("SNAPSHOT")) 
+		    		tagSnapshot(loc, out, dateString);
+		    	else {
+		    		try (InputStream is = loc.toURL().openStream()) {
+		    			IOUtils.copy(is, out);
+		    		}
 		    	}
+		    	out.closeArchiveEntry();
 		    }
-		    return jarfs.getPath(".");
+		}
+		if (base != null)
+			OgemaLauncher.LOGGER.info(String.format("Fix-pack against %s-%s: %d bundles included, %d unchanged", 
+					base.name, base.version, bundles.size() - missing, missing));
+		return dest;
+	}
+	
+	private static String getProperty(Map<String, String> properties, String key, String defaultValue) {
+		final String value = properties.get(key);
+		return value != null ? value : defaultValue;
+	}
+	
+	private static String digest(URI location) throws IOException {
+		try (InputStream is = location.toURL().openStream()) {
+			return FileDigest.sha256Hex(is);
 		}
 	}
 	
@@ -90,76 +185,78 @@ public class DeploymentPackageBuilder {
 		return version;
 	}
 	
-	public static InputStream tagSnapshot(URI bundleURI, Path tempFolder, String qualifier) throws IOException {
-		Path temp = getNextTempFile(tempFolder);	
-		Files.copy(bundleURI.toURL().openStream(), temp);
-		// manipulate MANIFEST and pom.xml
-		return tagSnapshot2(temp, qualifier);
-	}
-	
-	private static final InputStream tagSnapshot2(Path tempFile, String qualifier) throws IOException {
-		URI uri = tempFile.toUri();
-		Path temp2 = Paths.get(tempFile.toString()+ "_modified");
-		try (FileSystem jarfs = FileSystems.newFileSystem(URI.create("jar:" + temp2.toUri()), PROPS)) {
-			Files.createDirectories(jarfs.getPath("META-INF"));
-			Manifest manifest;
-			// TODO write manifest first, then copy other files
-			// Key: BundleSymbolic name
-			try (InputStream is = uri.toURL().openStream(); ZipInputStream zis = new ZipInputStream(is)) {
-				ZipEntry entry; // must be the manifest entry
-				while ((entry = zis.getNextEntry()) != null) {
-					try {
-						String entryName = entry.getName();
-						char z = entryName.charAt(0);
-						if (z == '/' || z=='\\')
-							entryName = entryName.substring(1);
-						Path entryPath = jarfs.getPath(entryName);
-						if (entry.isDirectory() || entryName.endsWith("/") || entryName.endsWith("\\")) {
-							Files.createDirectories(entryPath);
-							continue;
-						}
-						if (entryName.equals("META-INF/MANIFEST.MF")) {
-							manifest = new Manifest(zis);
-							Attributes main = manifest.getMainAttributes();
-							String symbName = main.getValue(Constants.BUNDLE_SYMBOLICNAME);
-							String version = main.getValue(Constants.BUNDLE_VERSION);
-							if (symbName == null || version == null) {
-								OgemaLauncher.LOGGER.log(Level.SEVERE,"Bundle manifest does not provide version and/or symbolic name: "+ symbName + "-" + version);
-								return null;
-							}
-							version = adaptVersion(version, qualifier);
-							main.putValue(Constants.BUNDLE_VERSION, version);
-						    try (OutputStream os = Files.newOutputStream(jarfs.getPath("META-INF/MANIFEST.MF"))) {
-						        manifest.write(os);
-						    }
-						}
-						else
-							Files.copy(zis,entryPath);
-					} catch (Exception e) {
-						OgemaLauncher.LOGGER.log(Level.SEVERE,"Error extracting zip file ",e);
-						e.printStackTrace();
+	/**
+	 * Writes a copy of the bundle to <code>out</code>, with the SNAPSHOT qualifier of the
+	 * Bundle-Version replaced by <code>qualifier</code>. Only the manifest is rewritten, all
+	 * other entries are copied without recompression if the bundle is a local file.
+	 * @param bundleURI
+	 * @param out
+	 * 		the stream is not closed
+	 * @param qualifier
+	 * @throws IOException
+	 */
+	public static void tagSnapshot(URI bundleURI, OutputStream out, String qualifier) throws IOException {
+		final ZipArchiveOutputStream jar = new ZipArchiveOutputStream(new NonClosingOutputStream(out));
+		if ("file".equals(bundleURI.getScheme())) {
+			try (ZipFile zip = new ZipFile(new File(bundleURI))) {
+				final ZipArchiveEntry mfEntry = zip.getEntry(JarFile.MANIFEST_NAME);
+				if (mfEntry == null)
+					throw new IOException("Bundle " + bundleURI + " does not contain a manifest");
+				try (InputStream is = zip.getInputStream(mfEntry)) {
+					writeTaggedManifest(is, jar, qualifier, bundleURI);
+				}
+				final Enumeration<ZipArchiveEntry> entries = zip.getEntriesInPhysicalOrder();
+				while (entries.hasMoreElements()) {
+					final ZipArchiveEntry entry = entries.nextElement();
+					if (entry.getName().equals(JarFile.MANIFEST_NAME))
+						continue;
+					try (InputStream raw = zip.getRawInputStream(entry)) {
+						jar.addRawArchiveEntry(entry, raw);
 					}
 				}
 			}
-			try {
-				Files.delete(tempFile);
-			} catch (IOException e) {
-				OgemaLauncher.LOGGER.log(Level.WARNING, "Could not delete temp file " + tempFile.toString(),e);
-			}
 		} 
-		return new TempFileInputStream(temp2);	
+		else {
+			// no random access to the central directory; stream entries, which requires recompression 
+			try (ZipArchiveInputStream zis = new ZipArchiveInputStream(bundleURI.toURL().openStream())) {
+				// the manifest is usually among the first two entries, but not necessarily
+				ZipArchiveEntry entry;
+				boolean manifestWritten = false;
+				while ((entry = zis.getNextZipEntry()) != null) {
+					if (entry.getName().equals(JarFile.MANIFEST_NAME)) {
+						if (manifestWritten)
+							continue;
+						writeTaggedManifest(zis, jar, qualifier, bundleURI);
+						manifestWritten = true;
+						continue;
+					}
+					final ZipArchiveEntry copy = new ZipArchiveEntry(entry.getName());
+					copy.setTime(entry.getTime());
+					jar.putArchiveEntry(copy);
+					IOUtils.copy(zis, jar);
+					jar.closeArchiveEntry();
+				}
+				if (!manifestWritten)
+					throw new IOException("Bundle " + bundleURI + " does not contain a manifest");
+			}
+		}
+		jar.finish();
 	}
 	
-	private static final Path getNextTempFile(Path path) {
-		int cnt = 0;
-		Path temp;
-		while (true) {
-			temp = path.resolve("temp" + cnt++);		
-			if (!Files.exists(temp))
-				return temp;
-		}
+	private static void writeTaggedManifest(InputStream in, ZipArchiveOutputStream jar, String qualifier, URI bundleURI) throws IOException {
+		final Manifest manifest = new Manifest(in);
+		final Attributes main = manifest.getMainAttributes();
+		final String symbName = main.getValue(Constants.BUNDLE_SYMBOLICNAME);
+		String version = main.getValue(Constants.BUNDLE_VERSION);
+		if (symbName == null || version == null) 
+			throw new IOException("Bundle manifest does not provide version and/or symbolic name: " + bundleURI);
+		version = adaptVersion(version, qualifier);
+		main.putValue(Constants.BUNDLE_VERSION, version);
+		jar.putArchiveEntry(new ZipArchiveEntry(JarFile.MANIFEST_NAME));
+		manifest.write(jar);
+		jar.closeArchiveEntry();
 	}
-
+	
 	private static Path getNewFile() {
 		int cnt = 0;
 		while (true) {
@@ -169,78 +266,91 @@ public class DeploymentPackageBuilder {
 		}
 	}
 	
-	private static final class TempFileInputStream extends InputStream {
+	/**
+	 * The relevant content of a previously built deployment package.
+	 */
+	private static final class BasePackage {
 		
-		private final Path file;
-		private final InputStream is;
+		final String name;
+		final Version version;
+		// key: bundle symbolic name
+		final Map<String, BaseEntry> bundles = new HashMap<>();
 		
-		public TempFileInputStream(Path path) throws MalformedURLException, IOException {
-			this.file = path;
-			this.is = path.toUri().toURL().openStream();
-		}
-
-		@Override
-		public void close() throws IOException {
-			try {
-				is.close();
-			} catch (Exception ignore) {}
-			try {
-				Files.delete(file);
-			} catch (Exception ignore) {}
+		private BasePackage(String name, Version version) {
+			this.name = name;
+			this.version = version;
 		}
 		
-		@Override
-		public int read() throws IOException {
-			return is.read();
-		}
-		
-		@Override
-		public int read(byte[] b, int off, int len) throws IOException {
-			return is.read(b, off, len);
+		static BasePackage read(Path file) throws IOException {
+			if (!Files.isRegularFile(file))
+				throw new IOException("Base deployment package " + file + " not found");
+			try (JarFile jar = new JarFile(file.toFile())) {
+				final Manifest mf = jar.getManifest();
+				final String name = mf == null ? null : mf.getMainAttributes().getValue(DP_SYMBOLICNAME);
+				final String version = mf == null ? null : mf.getMainAttributes().getValue(DP_VERSION);
+				if (name == null || version == null)
+					throw new IOException(file + " is not a deployment package");
+				final BasePackage base = new BasePackage(name, new Version(version));
+				for (Map.Entry<String, Attributes> entry : mf.getEntries().entrySet()) {
+					final Attributes att = entry.getValue();
+					String symbName = att.getValue(Constants.BUNDLE_SYMBOLICNAME);
+					if (symbName == null) // a resource, not a bundle 
+						continue;
+					final int idx = symbName.indexOf(';');
+					if (idx > 0)
+						symbName = symbName.substring(0, idx);
+					String digest = att.getValue(CONTENT_DIGEST);
+					if (digest == null) {
+						final JarEntry bundleEntry = jar.getJarEntry(entry.getKey());
+						if (bundleEntry == null) // missing in base package itself, and no digest available
+							continue;
+						try (InputStream is = jar.getInputStream(bundleEntry)) {
+							digest = FileDigest.sha256Hex(is);
+						}
+					}
+					base.bundles.put(symbName, new BaseEntry(entry.getKey(), att.getValue(Constants.BUNDLE_VERSION), digest));
+				}
+				OgemaLauncher.LOGGER.fine("Base deployment package " + name + "-" + version + " contains " 
+						+ base.bundles.size() + " bundles");
+				return base;
+			}
 		}
 		
-		@Override
-		public int read(byte[] b) throws IOException {
-			return is.read(b);
-		}
+	}
+	
+	private static final class BaseEntry {
 		
-		@Override
-		public synchronized void reset() throws IOException {
-			is.reset();
-		}
+		final String path;
+		final String version;
+		final String digest;
 		
-		@Override
-		public long skip(long n) throws IOException {
-			return is.skip(n);
+		BaseEntry(String path, String version, String digest) {
+			this.path = path;
+			this.version = version;
+			this.digest = digest;
 		}
 		
-		@Override
-		public boolean markSupported() {
-			return is.markSupported();
-		}
+	}
+	
+	/**
+	 * Lets a nested zip stream write into an entry of the outer one.
+	 */
+	private static final class NonClosingOutputStream extends FilterOutputStream {
 		
-		@Override
-		public synchronized void mark(int readlimit) {
-			is.mark(readlimit);
+		NonClosingOutputStream(OutputStream out) {
+			super(out);
 		}
 		
 		@Override
-		public int available() throws IOException {
-			return is.available();
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
 		}
 		
 		@Override
-		protected Object clone() throws CloneNotSupportedException {
-			try {
-				return new TempFileInputStream(file);
-			} catch (IOException e) {
-				throw new CloneNotSupportedException("" + e);
-			}
+		public void close() throws IOException {
+			flush();
 		}
 		
-
-		
 	}
-	
-	
+
 }
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 digests of files and content, as used by the launcher caches and the
+ * change detection of the builders.
+ */
+public class FileDigest {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private FileDigest() {}
+
+	public static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) { // SHA-256 support is mandatory
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Adds the remaining content of the stream to the digest; the stream is not closed.
+	 */
+	public static void update(MessageDigest md, InputStream in) throws IOException {
+		final byte[] buf = new byte[BUFFER_SIZE];
+		int l;
+		while ((l = in.read(buf)) != -1) {
+			md.update(buf, 0, l);
+		}
+	}
+
+	public static void update(MessageDigest md, Path file) throws IOException {
+		try (InputStream in = Files.newInputStream(file)) {
+			update(md, in);
+		}
+	}
+
+	public static byte[] sha256(Path file) throws IOException {
+		final MessageDigest md = sha256();
+		update(md, file);
+		return md.digest();
+	}
+
+	/**
+	 * @return
+	 * 		hex encoded digest of the remaining content of the stream, which is not closed
+	 */
+	public static String sha256Hex(InputStream in) throws IOException {
+		final MessageDigest md = sha256();
+		update(md, in);
+		return toHex(md.digest());
+	}
+
+	public static String sha256Hex(byte[] content) {
+		return toHex(sha256().digest(content));
+	}
+
+	/**
+	 * @return
+	 * 		lower case hex encoding of the digest
+	 */
+	public static String toHex(byte[] digest) {
+		final StringBuilder sb = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.ogema.launcher.OgemaLauncher;
+import org.osgi.framework.Constants;
+
+/**
+ * Symbolic name and framework factory class of an OSGi framework jar, read from its manifest
+ * and its <code>META-INF/services/org.osgi.framework.launch.FrameworkFactory</code> entry.
+ * The result is kept in the {@link LaunchCache}, so the jar is only read again when it changes.
+ */
+public class FrameworkInfo {
+
+	private static final String SERVICE_ENTRY = "META-INF/services/org.osgi.framework.launch.FrameworkFactory";
+	private static final String CACHE_PREFIX = "framework.";
+
+	private final String symbolicName;
+	private final String factoryClass;
+
+	private FrameworkInfo(String symbolicName, String factoryClass) {
+		this.symbolicName = symbolicName;
+		this.factoryClass = factoryClass;
+	}
+
+	/**
+	 * @return
+	 * 		the bundle symbolic name, without directives; null if the jar has none
+	 */
+	public String getSymbolicName() {
+		return symbolicName;
+	}
+
+	/**
+	 * @return
+	 * 		the first framework factory declared by the jar, or null
+	 */
+	public String getFactoryClass() {
+		return factoryClass;
+	}
+
+	/**
+	 * @param jar
+	 * @return
+	 * 		the framework info, or null if the jar cannot be read
+	 */
+	public static FrameworkInfo get(File jar) {
+		final LaunchCache cache = LaunchCache.getInstance();
+		final String key = CACHE_PREFIX + jar.getAbsolutePath();
+		final String stamp = LaunchCache.fileStamp(jar);
+		// value: stamp|symbolic name|factory class
+		final String cached = cache.get(key);
+		if (cached != null) {
+			final String[] parts = cached.split("\\|", -1);
+			if (parts.length == 3 && parts[0].equals(stamp))
+				return new FrameworkInfo(emptyToNull(parts[1]), emptyToNull(parts[2]));
+		}
+		final FrameworkInfo info;
+		try {
+			info = read(jar);
+		} catch (IOException e) {
+			OgemaLauncher.LOGGER.warning("Could not read framework jar " + jar + ": " + e);
+			return null;
+		}
+		cache.put(key, stamp + "|" + nullToEmpty(info.symbolicName) + "|" + nullToEmpty(info.factoryClass));
+		return info;
+	}
+
+	private static FrameworkInfo read(File jar) throws IOException {
+		try (JarFile file = new JarFile(jar, false)) {
+			String symbolicName = null;
+			final Manifest manifest = file.getManifest();
+			if (manifest != null) {
+				symbolicName = manifest.getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME);
+				if (symbolicName != null) {
+					final int idx = symbolicName.indexOf(';');
+					symbolicName = (idx >= 0 ? symbolicName.substring(0, idx) : symbolicName).trim();
+				}
+			}
+			String factory = null;
+			final ZipEntry entry = file.getEntry(SERVICE_ENTRY);
+			if (entry != null) {
+				try (BufferedReader reader = new BufferedReader(
+						new InputStreamReader(file.getInputStream(entry), StandardCharsets.UTF_8))) {
+					String line;
+					while (factory == null && (line = reader.readLine()) != null) {
+						final int comment = line.indexOf('#');
+						line = (comment >= 0 ? line.substring(0, comment) : line).trim();
+						if (!line.isEmpty())
+							factory = line;
+					}
+				}
+			}
+			OgemaLauncher.LOGGER.fine("Framework jar " + jar + ": " + symbolicName + ", factory " + factory);
+			return new FrameworkInfo(symbolicName, factory);
+		}
+	}
+
+	private static String emptyToNull(String s) {
+		return s.isEmpty() ? null : s;
+	}
+
+	private static String nullToEmpty(String s) {
+		return s != null ? s : "";
+	}
+
+	@Override
+	public String toString() {
+		return symbolicName + " (" + factoryClass + ")";
+	}
+
+}
@@ -12,22 +12,29 @@ import static org.ogema.launcher.LauncherConstants.USERDATA_PROPERTY;
 import static org.ogema.launcher.config.ConfigurationConstants.DEF_OGEMA_USERDATA_PATH;
 
 import java.io.File;
-import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.TreeMap;
 import java.util.logging.Level;
 
-import org.codehaus.plexus.util.FileUtils;
 import org.ogema.launcher.BundleInfo;
 import org.ogema.launcher.OgemaLauncher;
 import org.ogema.launcher.config.FrameworkConfiguration;
+import org.ogema.launcher.exceptions.InitBundleInfoException;
+import org.ogema.launcher.resolver.BundleResolver;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
 import org.osgi.framework.Version;
 import org.osgi.framework.launch.Framework;
 import org.osgi.framework.launch.FrameworkFactory;
@@ -35,9 +42,16 @@ import org.osgi.framework.wiring.BundleRevision;
 
 public class FrameworkUtil {
 	
+	private static final String LAUNCHER_DATA_DIR = "launcher";
+	private static final String LOCATION_CACHE_PREFIX = "location.";
+	// ogema 1
+	private static final String LEGACY_USERDATA_PROPERTY = "ogema.userdata.path";
+	// key: absolute path of the framework jar
+	private static final Map<String, URLClassLoader> SHARED_CLASS_LOADERS = new HashMap<>();
+	
 //	@SuppressWarnings({"unchecked", "rawtypes"})
 	public static URLClassLoader addFwkBundleToClasspath(final BundleInfo frameworkBundle, final ClassLoader baseClassLoader) {
-		File fwkBundle = new File(frameworkBundle.getPreferredLocation().getSchemeSpecificPart());
+		File fwkBundle = getFrameworkJar(frameworkBundle);
 		if (fwkBundle.exists()) {
 			try {
 				final URL url = frameworkBundle.getPreferredLocation().toURL();
@@ -62,15 +76,53 @@ public class FrameworkUtil {
 		}
 	}
 	
+	/**
+	 * Framework class loader for the given framework bundle, shared by all framework instances
+	 * in this VM that request it; created on first use.
+	 * @param frameworkBundle
+	 * @param baseClassLoader
+	 * @return
+	 */
+	public static URLClassLoader getSharedFrameworkClassLoader(final BundleInfo frameworkBundle, final ClassLoader baseClassLoader) {
+		final String key = getFrameworkJar(frameworkBundle).getAbsolutePath();
+		synchronized (SHARED_CLASS_LOADERS) {
+			URLClassLoader loader = SHARED_CLASS_LOADERS.get(key);
+			if (loader == null) {
+				loader = addFwkBundleToClasspath(frameworkBundle, baseClassLoader);
+				fixJavaFxClasspath(loader);
+				SHARED_CLASS_LOADERS.put(key, loader);
+			}
+			return loader;
+		}
+	}
+
+	public static boolean isSharedFrameworkClassLoader(final ClassLoader loader) {
+		synchronized (SHARED_CLASS_LOADERS) {
+			return SHARED_CLASS_LOADERS.containsValue(loader);
+		}
+	}
+
+	/**
+	 * Directories are moved to the {@link Trash} and deleted in the background, while the framework starts.
+	 */
 	public static void doCleanStart(boolean clean, FrameworkConfiguration frameworkConfig, List<String> deleteList) {
 		frameworkConfig.setCleanStart(clean);
 		
+		File frameworkStorage = getFrameworkStorage(frameworkConfig);
+		final List<File> locations = new ArrayList<>();
+		locations.add(frameworkStorage);
+		for(String s : deleteList) {
+			locations.add(new File(s));
+		}
+		// left over by a previous launch that terminated before the deletion was finished
+		Trash.reclaim(locations);
+		
 		if(clean) {
 			for(String s : deleteList) {
 				File fileToDelete = new File(s);
 				if(fileToDelete.exists()) {
 					if(fileToDelete.isDirectory()) {
-						deleteDirectory(fileToDelete);
+						Trash.dispose(fileToDelete);
 					} else {
 						if(!fileToDelete.delete()) {
 							OgemaLauncher.LOGGER.warning("Unable to delete " + s);
@@ -79,21 +131,11 @@ public class FrameworkUtil {
 				}
 			}
 			
-			File frameworkStorage = getFrameworkStorage(frameworkConfig);
 			if(frameworkStorage.exists()) {
-				deleteDirectory(frameworkStorage);
+				Trash.dispose(frameworkStorage);
 			}
 		}
 	}
-
-	private static void deleteDirectory(File fileToDelete) {
-		try {
-			FileUtils.deleteDirectory(fileToDelete);
-		} catch (IOException e) {
-			OgemaLauncher.LOGGER.warning("Unable to delete " + fileToDelete.getAbsolutePath() +
-					" - Error message: " + e.getMessage());
-		}
-	}
 	
 	// FIXME is this really required?
 	@SuppressWarnings({"unchecked", "rawtypes"})
@@ -140,7 +182,7 @@ public class FrameworkUtil {
 	public static File getFrameworkStorage(FrameworkConfiguration frameworkConfig) {
 		File result = frameworkConfig.getFrameworkStorage();
 		if(result == null) {
-			result = new File(getOgemaUserdataPath(), "osgi-storage");
+			result = new File(getOgemaUserdataPath(frameworkConfig), "osgi-storage");
 			frameworkConfig.setFrameworkStorage(result);
 		}
 		
@@ -161,29 +203,68 @@ public class FrameworkUtil {
 	}
 
 	/**
-	 * Gets the ogema userdata path and creates the directory if it doesn't exist yet.
+	 * Gets the ogema userdata path from the system properties. If not set, the default is set
+	 * as system property. This is the userdata path of the launcher itself; a framework may
+	 * use a different one, see {@link #getOgemaUserdataPath(FrameworkConfiguration)}.
 	 * @return
 	 */
 	public static File getOgemaUserdataPath() {
 		String userdataPath = System.getProperty(USERDATA_PROPERTY);
 		if(userdataPath == null) {
 			// backwards compatibility with ogema 1:
-			userdataPath = System.getProperty("ogema.userdata.path");
+			userdataPath = System.getProperty(LEGACY_USERDATA_PROPERTY);
 			if(userdataPath == null) {
 				// set to default:
 				userdataPath = DEF_OGEMA_USERDATA_PATH;
 			}
 			
 			// set old property for backwards compatibility:
-			System.setProperty("ogema.userdata.path", userdataPath);
-			System.setProperty(USERDATA_PROPERTY, userdataPath);
+			FrameworkConfiguration.setSystemProperty(LEGACY_USERDATA_PROPERTY, userdataPath);
+			FrameworkConfiguration.setSystemProperty(USERDATA_PROPERTY, userdataPath);
 		}
 		
 		return new File(userdataPath);
 	}
+
+	/**
+	 * Gets the ogema userdata path of a framework: the framework property, if set in the
+	 * configuration, otherwise {@link #getOgemaUserdataPath()}.
+	 * @param frameworkConfig
+	 * @return
+	 */
+	public static File getOgemaUserdataPath(FrameworkConfiguration frameworkConfig) {
+		final Map<String, String> props = frameworkConfig.getFrameworkProperties();
+		String userdataPath = props.get(USERDATA_PROPERTY);
+		if(userdataPath == null) {
+			userdataPath = props.get(LEGACY_USERDATA_PROPERTY);
+		}
+		return userdataPath != null ? new File(userdataPath) : getOgemaUserdataPath();
+	}
+
+	/**
+	 * Passes the userdata path to the framework as framework properties, in the current and the
+	 * old property name. Framework properties are scoped to the framework instance, unlike system
+	 * properties, so that several frameworks in one VM can use different paths; a single framework
+	 * gets the system properties, see {@link #getOgemaUserdataPath()}.
+	 * @param frameworkConfig
+	 */
+	public static void scopeOgemaUserdataPath(FrameworkConfiguration frameworkConfig) {
+		final String userdataPath = getOgemaUserdataPath(frameworkConfig).getPath();
+		frameworkConfig.addFrameworkProperty(USERDATA_PROPERTY, userdataPath);
+		frameworkConfig.addFrameworkProperty(LEGACY_USERDATA_PROPERTY, userdataPath);
+	}
 	
-	public static boolean createOgemaUserdataPath() {
-		File result = getOgemaUserdataPath();
+	/**
+	 * Directory for files the launcher itself persists between runs (caches, state),
+	 * located in the OGEMA userdata directory. Not created by this method.
+	 * @return
+	 */
+	public static File getLauncherDataDir() {
+		return new File(getOgemaUserdataPath(), LAUNCHER_DATA_DIR);
+	}
+	
+	public static boolean createOgemaUserdataPath(FrameworkConfiguration frameworkConfig) {
+		File result = getOgemaUserdataPath(frameworkConfig);
 		
 		if(!result.exists()) {
 			return result.mkdirs();
@@ -227,7 +308,100 @@ public class FrameworkUtil {
 		return null;
 	}
 	
+	/**
+	 * Resolves the framework bundle via the resolver chain, and remembers the location found
+	 * in the {@link LaunchCache}. On a warm start the remembered location is used as long as the
+	 * jar is unchanged, so the resolver chain (in particular the maven resolver) is not needed.
+	 * @param resolverChain
+	 * @param frameworkBundle
+	 * @param warmStart
+	 * 		true if the framework storage exists and no bundles will be resolved
+	 * @return
+	 * 		true if the framework bundle has been resolved
+	 */
+	public static boolean resolveFrameworkBundle(BundleResolver resolverChain, BundleInfo frameworkBundle, boolean warmStart) {
+		final String coords = frameworkBundle.getMavenCoords();
+		if (coords == null || coords.isEmpty()) {
+			// resolved from the file system anyway
+			return resolverChain.resolve(frameworkBundle);
+		}
+		final LaunchCache cache = LaunchCache.getInstance();
+		final String key = LOCATION_CACHE_PREFIX + coords;
+		if (warmStart && resolveFromCache(frameworkBundle, cache.get(key))) {
+			OgemaLauncher.LOGGER.log(Level.FINE, "Framework bundle {0} resolved from launch cache: {1}",
+					new Object[] { coords, frameworkBundle.getPreferredLocation() });
+			return true;
+		}
+		if (!resolverChain.resolve(frameworkBundle))
+			return false;
+		// value: stamp|maven artifact location|preferred location
+		final URI mavenLocation = frameworkBundle.getMavenArtifactLocation();
+		cache.put(key, LaunchCache.fileStamp(getFrameworkJar(frameworkBundle)) + "|"
+				+ (mavenLocation != null ? mavenLocation : "") + "|" + frameworkBundle.getPreferredLocation());
+		return true;
+	}
+
+	private static boolean resolveFromCache(BundleInfo frameworkBundle, String cached) {
+		if (cached == null)
+			return false;
+		final String[] parts = cached.split("\\|", -1);
+		if (parts.length != 3)
+			return false;
+		try {
+			final URI preferredLocation = new URI(parts[2]);
+			final File jar = new File(preferredLocation.getSchemeSpecificPart());
+			if (!jar.isFile() || !parts[0].equals(LaunchCache.fileStamp(jar)))
+				return false;
+			if (!parts[1].isEmpty())
+				frameworkBundle.setMavenArtifactLocation(new URI(parts[1]));
+			frameworkBundle.setPreferredLocation(preferredLocation);
+			BundleInfoUtil.addSymbolicNameToBundleInfo(frameworkBundle);
+			BundleInfoUtil.addVersionToBundleInfo(frameworkBundle);
+		} catch (URISyntaxException | InitBundleInfoException e) {
+			OgemaLauncher.LOGGER.fine("Ignoring cached framework bundle location: " + e);
+			return false;
+		}
+		frameworkBundle.setResolved(true);
+		return true;
+	}
+
+	/**
+	 * @param frameworkBundle
+	 * 		the resolved framework bundle
+	 * @return
+	 * 		the framework jar file
+	 */
+	public static File getFrameworkJar(BundleInfo frameworkBundle) {
+		return new File(frameworkBundle.getPreferredLocation().getSchemeSpecificPart());
+	}
+
+	/**
+	 * @param frameworkBundle
+	 * 		the resolved framework bundle
+	 * @return
+	 * 		symbolic name and factory of the framework, or null if the jar cannot be read
+	 */
+	public static FrameworkInfo getFrameworkInfo(BundleInfo frameworkBundle) {
+		return FrameworkInfo.get(getFrameworkJar(frameworkBundle));
+	}
+
+	/**
+	 * Instantiates the factory declared by the framework jar; only if the jar does not declare
+	 * one, the class path is scanned for a factory.
+	 */
 	public static Framework getFramework(Map<String, String> frameworkProps, BundleInfo frameworkBundle, URLClassLoader classLoader) {
+		final FrameworkInfo info = getFrameworkInfo(frameworkBundle);
+		if (info != null && info.getFactoryClass() != null) {
+			try {
+				final FrameworkFactory frameworkFactory = (FrameworkFactory) Class.forName(info.getFactoryClass(), true, classLoader)
+						.getDeclaredConstructor().newInstance();
+				OgemaLauncher.LOGGER.log(Level.FINE, "Framework factory: {0}", frameworkFactory.getClass());
+				return frameworkFactory.newFramework(frameworkProps);
+			} catch (ReflectiveOperationException | ClassCastException | LinkageError e) {
+				OgemaLauncher.LOGGER.warning("Could not instantiate framework factory " + info.getFactoryClass()
+						+ ", searching the class path: " + e);
+			}
+		}
 		ServiceLoader<FrameworkFactory> facLoader = ServiceLoader.load(FrameworkFactory.class, classLoader);
 		Iterator<FrameworkFactory> it = facLoader.iterator();
 		if (!it.hasNext()) {
@@ -247,6 +421,31 @@ public class FrameworkUtil {
 		return frameworkFactory.newFramework(frameworkProps);
 	}
 	
+	/**
+	 * @param framework
+	 * 		may be null
+	 * @return
+	 * 		number of bundles by state name, empty if the framework is not running
+	 */
+	public static Map<String, Integer> countBundleStates(Framework framework) {
+		final BundleContext ctx = framework != null ? framework.getBundleContext() : null;
+		if (ctx == null)
+			return Collections.emptyMap();
+		final Map<String, Integer> result = new TreeMap<>();
+		try {
+			for (Bundle b : ctx.getBundles()) {
+				final String state = getBundleState(b.getState());
+				if (state == null)
+					continue;
+				final Integer count = result.get(state);
+				result.put(state, count == null ? 1 : count + 1);
+			}
+		} catch (IllegalStateException e) { // framework stopping
+			return Collections.emptyMap();
+		}
+		return result;
+	}
+
 	public final static String getBundleState(final int state) {
 		switch (state) {
 		case Bundle.ACTIVE:
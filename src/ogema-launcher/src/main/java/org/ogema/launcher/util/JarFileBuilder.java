@@ -8,64 +8,243 @@
  */
 package org.ogema.launcher.util;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.jar.JarEntry;
-import java.util.jar.JarOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.parallel.InputStreamSupplier;
+import org.apache.commons.compress.utils.IOUtils;
+import org.ogema.launcher.OgemaLauncher;
+
+/**
+ * Builds jar files from exploded bundle directories (e.g. a workspace project's
+ * <code>target/classes</code>). The manifest is written as the first entry,
+ * larger trees are compressed in parallel. A digest of the directory tree is stored
+ * as the archive comment, and the jar is not rebuilt if the tree is unchanged.
+ * If an entry time is passed, the jar is reproducible: entries are sorted and
+ * written sequentially, and all of them have the same timestamp.
+ */
 public class JarFileBuilder {
-	public static void buildJar(File loc, File target) throws IOException {
-		JarOutputStream jarOutputStream = null;
-		try {
-			if(!target.getParentFile().exists()) {
-				target.getParentFile().mkdirs();
+
+	private static final String DIGEST_PREFIX = "ogema-launcher tree digest: ";
+	// below this number of files, the overhead of the parallel creator does not pay off
+	private static final int PARALLEL_THRESHOLD = 64;
+
+	/**
+	 * @param loc
+	 * 		the bundle directory
+	 * @param target
+	 * 		the jar file to create; if it exists and has been built from an identical tree, it is kept
+	 * @return
+	 * 		false if the existing target was up to date, true if it has been (re-)built
+	 * @throws IOException
+	 */
+	public static boolean buildJar(File loc, File target) throws IOException {
+		return buildJar(loc, target, null);
+	}
+
+	/**
+	 * @param loc
+	 * 		the bundle directory
+	 * @param target
+	 * 		the jar file to create; if it exists and has been built from an identical tree, it is kept
+	 * @param entryTime
+	 * 		timestamp in millis for all entries, or null to use the file modification times
+	 * @return
+	 * 		false if the existing target was up to date, true if it has been (re-)built
+	 * @throws IOException
+	 */
+	public static boolean buildJar(File loc, File target, Long entryTime) throws IOException {
+		final Path base = loc.toPath();
+		final List<TreeEntry> tree = walk(base);
+		if (entryTime != null) {
+			final long zipTime = AbstractPackagingUtil.toZipTime(entryTime);
+			for (TreeEntry e : tree)
+				e.time = zipTime;
+		}
+		// the digest covers the entry times, so switching modes forces a rebuild
+		final String comment = DIGEST_PREFIX + digest(tree, entryTime != null);
+		if (target.isFile() && comment.equals(readComment(target))) {
+			OgemaLauncher.LOGGER.fine("Jar file " + target + " is up to date");
+			return false;
+		}
+		if(!target.getParentFile().exists()) {
+			target.getParentFile().mkdirs();
+		}
+		try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(target)) {
+			out.setComment(comment);
+			// OSGi frameworks read the manifest from the first entries (cf. JarInputStream)
+			for (TreeEntry e : tree) {
+				if (e.name.equals(JarFile.MANIFEST_NAME)) {
+					addEntry(out, e);
+					break;
+				}
 			}
-			jarOutputStream = new JarOutputStream(new FileOutputStream(target, false));
-			add(loc, jarOutputStream, loc);
-		} finally {
-			if(jarOutputStream != null) {
-				jarOutputStream.close();
+			// parallel compression does not preserve the entry order
+			if (entryTime != null || tree.size() < PARALLEL_THRESHOLD) {
+				for (TreeEntry e : tree) {
+					if (!e.name.equals(JarFile.MANIFEST_NAME))
+						addEntry(out, e);
+				}
+			}
+			else {
+				writeParallel(out, tree);
 			}
 		}
+		return true;
 	}
 
-	private static void add(File source, JarOutputStream jarOutputStream,
-			File baseDir) throws IOException {
-		BufferedInputStream in = null;
-		try {
-			String name = baseDir.toURI().relativize(
-					source.toURI()).getPath();
-			if (source.isDirectory()) {
-				if (!name.isEmpty()) {
-					JarEntry entry = new JarEntry(name);
-					entry.setTime(source.lastModified());
-					jarOutputStream.putNextEntry(entry);
-					jarOutputStream.closeEntry();
-				}
-				for (File nestedFile: source.listFiles()) {
-					add(nestedFile, jarOutputStream, baseDir);
+	private static void addEntry(ZipArchiveOutputStream out, TreeEntry e) throws IOException {
+		out.putArchiveEntry(e.createArchiveEntry());
+		if (!e.directory) {
+			try (InputStream in = Files.newInputStream(e.path)) {
+				IOUtils.copy(in, out);
+			}
+		}
+		out.closeArchiveEntry();
+	}
+
+	private static void writeParallel(ZipArchiveOutputStream out, List<TreeEntry> tree) throws IOException {
+		final ParallelScatterZipCreator creator = new ParallelScatterZipCreator();
+		for (final TreeEntry e : tree) {
+			if (e.name.equals(JarFile.MANIFEST_NAME))
+				continue;
+			creator.addArchiveEntry(e.createArchiveEntry(), new InputStreamSupplier() {
+
+				@Override
+				public InputStream get() {
+					if (e.directory)
+						return new ByteArrayInputStream(new byte[0]);
+					try {
+						return Files.newInputStream(e.path);
+					} catch (IOException ex) {
+						throw new IllegalStateException(ex);
+					}
 				}
+			});
+		}
+		try {
+			creator.writeTo(out);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while building jar", e);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause() instanceof IllegalStateException && e.getCause().getCause() != null
+					? e.getCause().getCause() : e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	private static List<TreeEntry> walk(final Path base) throws IOException {
+		final List<TreeEntry> entries = new ArrayList<>();
+		Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!dir.equals(base))
+					entries.add(new TreeEntry(relativeName(base, dir) + "/", dir, attrs));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				entries.add(new TreeEntry(relativeName(base, file), file, attrs));
+				return FileVisitResult.CONTINUE;
+			}
+
+		});
+		// the digest must not depend on the directory listing order
+		Collections.sort(entries, new Comparator<TreeEntry>() {
+
+			@Override
+			public int compare(TreeEntry o1, TreeEntry o2) {
+				return o1.name.compareTo(o2.name);
+			}
+		});
+		return entries;
+	}
+
+	private static String relativeName(Path base, Path p) {
+		return base.relativize(p).toString().replace(File.separatorChar, '/');
+	}
+
+	/*
+	 * Digest over names, sizes and modification times; a touched but otherwise
+	 * unchanged file causes a rebuild, which is harmless. The digest ends up in the
+	 * archive, so for reproducible jars it is computed from the file contents instead
+	 * of the modification times.
+	 */
+	private static String digest(List<TreeEntry> tree, boolean content) throws IOException {
+		final MessageDigest md = FileDigest.sha256();
+		for (TreeEntry e : tree) {
+			md.update(e.name.getBytes(StandardCharsets.UTF_8));
+			md.update((byte) 0);
+			if (content) {
+				md.update(String.valueOf(e.time).getBytes(StandardCharsets.UTF_8));
+				if (!e.directory)
+					FileDigest.update(md, e.path);
 			} else {
-				JarEntry entry = new JarEntry(name);
-				entry.setTime(source.lastModified());
-				jarOutputStream.putNextEntry(entry);
-				in = new BufferedInputStream(new FileInputStream(source));
-
-				byte[] buffer = new byte[1024];
-				int count = -1;
-				while ((count = in.read(buffer)) != -1) {
-					jarOutputStream.write(buffer, 0, count);
-				}
-				jarOutputStream.closeEntry();
+				md.update((e.size + ":" + e.lastModified + ":" + e.time).getBytes(StandardCharsets.UTF_8));
 			}
+			md.update((byte) 0);
 		}
-		finally {
-			if (in != null) {
-				in.close();
-			}
+		return FileDigest.toHex(md.digest());
+	}
+
+	private static String readComment(File jar) {
+		try (ZipFile zip = new ZipFile(jar)) {
+			return zip.getComment();
+		} catch (IOException e) { // corrupt or incomplete file, needs a rebuild
+			return null;
+		}
+	}
+
+	private static final class TreeEntry {
+
+		final String name;
+		final Path path;
+		final boolean directory;
+		final long size;
+		final long lastModified;
+		long time;
+
+		TreeEntry(String name, Path path, BasicFileAttributes attrs) {
+			this.name = name;
+			this.path = path;
+			this.directory = attrs.isDirectory();
+			this.size = directory ? 0 : attrs.size();
+			this.lastModified = attrs.lastModifiedTime().toMillis();
+			this.time = lastModified;
+		}
+
+		ZipArchiveEntry createArchiveEntry() {
+			final ZipArchiveEntry entry = new ZipArchiveEntry(name);
+			entry.setTime(time);
+			entry.setMethod(ZipEntry.DEFLATED);
+			return entry;
 		}
+
 	}
-}
\ No newline at end of file
+
+}
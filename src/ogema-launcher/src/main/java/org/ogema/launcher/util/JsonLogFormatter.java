@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+/**
+ * Formats log records as JSON lines, one object per record with the fields time (UTC),
+ * level, logger, thread, phase and bundle (see {@link LogContext}, if set), message and
+ * exception (if any), for processing by log collectors. The context is read when the record
+ * is formatted, so the formatter must run in the logging thread, as with the
+ * {@link AsyncLogHandler}.
+ */
+public class JsonLogFormatter extends Formatter {
+
+	// guarded by itself
+	private final DateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+	public JsonLogFormatter() {
+		timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	@Override
+	public String format(LogRecord record) {
+		final StringBuilder sb = new StringBuilder(128);
+		final String time;
+		synchronized (timeFormat) {
+			time = timeFormat.format(new Date(record.getMillis()));
+		}
+		sb.append("{\"time\":\"").append(time).append('"');
+		sb.append(",\"level\":\"").append(record.getLevel().getName()).append('"');
+		appendField(sb, "logger", record.getLoggerName());
+		sb.append(",\"thread\":").append(record.getThreadID());
+		appendField(sb, "phase", LogContext.getPhase());
+		appendField(sb, "bundle", LogContext.getBundle());
+		appendField(sb, "message", formatMessage(record));
+		if (record.getThrown() != null) {
+			final StringWriter sw = new StringWriter();
+			try (PrintWriter pw = new PrintWriter(sw)) {
+				record.getThrown().printStackTrace(pw);
+			}
+			appendField(sb, "exception", sw.toString());
+		}
+		return sb.append("}\n").toString();
+	}
+
+	private static void appendField(StringBuilder sb, String name, String value) {
+		if (value == null)
+			return;
+		sb.append(",\"").append(name).append("\":\"");
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					sb.append(String.format("\\u%04x", (int) c));
+				else
+					sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+}
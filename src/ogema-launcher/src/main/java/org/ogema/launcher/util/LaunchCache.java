@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.ogema.launcher.OgemaLauncher;
+
+/**
+ * Small persistent key-value store in the launcher data directory, for results that are
+ * expensive to determine and do not change between launches, such as the framework factory
+ * class of a framework jar. Entries derived from a file should be validated with
+ * {@link #fileStamp(File)}.
+ */
+public class LaunchCache {
+
+	private static final String FILE = "launch.properties";
+	private static LaunchCache instance;
+
+	private final Properties properties = new Properties();
+
+	private LaunchCache() {
+		final Path file = getFile();
+		if (!Files.isRegularFile(file))
+			return;
+		try (InputStream in = Files.newInputStream(file)) {
+			properties.load(in);
+		} catch (IOException | IllegalArgumentException e) {
+			OgemaLauncher.LOGGER.fine("Could not read launch cache: " + e);
+			properties.clear();
+		}
+	}
+
+	public static synchronized LaunchCache getInstance() {
+		if (instance == null)
+			instance = new LaunchCache();
+		return instance;
+	}
+
+	/**
+	 * @param file
+	 * @return
+	 * 		a string that changes when the file is replaced or modified
+	 */
+	public static String fileStamp(File file) {
+		return file.length() + ":" + file.lastModified();
+	}
+
+	public synchronized String get(String key) {
+		return properties.getProperty(key);
+	}
+
+	/**
+	 * Set a value and write the cache.
+	 * @param key
+	 * @param value
+	 * 		null to remove the entry
+	 */
+	public synchronized void put(String key, String value) {
+		final Object previous = value != null ? properties.setProperty(key, value) : properties.remove(key);
+		if (value == null ? previous == null : value.equals(previous))
+			return;
+		final Path file = getFile();
+		try {
+			Files.createDirectories(file.getParent());
+			// unique, concurrent launches share the launcher data directory
+			final Path tmp = Files.createTempFile(file.getParent(), "launch", ".tmp");
+			try {
+				try (OutputStream out = Files.newOutputStream(tmp)) {
+					properties.store(out, "ogema-launcher cache, may be deleted");
+				}
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		} catch (IOException e) {
+			OgemaLauncher.LOGGER.fine("Could not write launch cache: " + e);
+		}
+	}
+
+	private static Path getFile() {
+		return new File(FrameworkUtil.getLauncherDataDir(), FILE).toPath();
+	}
+
+}
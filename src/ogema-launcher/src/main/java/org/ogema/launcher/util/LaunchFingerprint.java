@@ -0,0 +1,257 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.ogema.launcher.BundleInfo;
+import org.ogema.launcher.OgemaLauncher;
+
+/**
+ * Describes the bundle set and framework properties of a launch, as far as it can be
+ * determined without resolving the bundles. The fingerprint of the last successful launch
+ * is persisted per framework storage in the launcher data directory, so that a warm start can install or update
+ * only the bundles whose configuration entry or bundle file has changed since then.
+ * The start attributes (start level and start flag) are recorded separately from the artifact
+ * (location, version, bin dir and file size and time), so that a bundle whose start attributes
+ * have changed only is not updated.<br>
+ * Bundles resolved from a Maven repository are identified by their coordinates; a changed
+ * SNAPSHOT artifact with unchanged coordinates is not detected, use the -ub option for this.
+ */
+public class LaunchFingerprint {
+
+	private static final String FILE_PREFIX = "fingerprint-";
+	private static final String FILE_SUFFIX = ".properties";
+	private static final String STORAGE_KEY = "storage";
+	private static final String PROPERTIES_KEY = "properties";
+	private static final String FORMAT_KEY = "format";
+	// fingerprints of an older format are ignored
+	private static final String FORMAT = "2";
+	private static final String BUNDLE_PREFIX = "bundle.";
+	private static final String START_PREFIX = "start.";
+
+	private final String storage;
+	private final String propertiesDigest;
+	// key: bundle identity, value: artifact descriptor
+	private final Map<String, String> bundles;
+	// key: bundle identity, value: start level and start flag
+	private final Map<String, String> startAttributes;
+	private final Map<String, BundleInfo> infos;
+
+	private LaunchFingerprint(String storage, String propertiesDigest, Map<String, String> bundles,
+			Map<String, String> startAttributes, Map<String, BundleInfo> infos) {
+		this.storage = storage;
+		this.propertiesDigest = propertiesDigest;
+		this.bundles = bundles;
+		this.startAttributes = startAttributes;
+		this.infos = infos;
+	}
+
+	/**
+	 * @param bundles
+	 * 		the configured bundles, need not be resolved
+	 * @param properties
+	 * 		the framework properties
+	 * @param storage
+	 * 		the framework storage directory
+	 * @return
+	 */
+	public static LaunchFingerprint create(Collection<BundleInfo> bundles, Map<String, String> properties, File storage) {
+		final Map<String, String> descriptors = new LinkedHashMap<>(bundles.size());
+		final Map<String, String> startAttributes = new LinkedHashMap<>(bundles.size());
+		final Map<String, BundleInfo> infos = new LinkedHashMap<>(bundles.size());
+		for (BundleInfo bi : bundles) {
+			final String id = getIdentity(bi);
+			descriptors.put(id, getDescriptor(bi));
+			startAttributes.put(id, bi.getStartLevel() + "," + bi.isStart());
+			infos.put(id, bi);
+		}
+		return new LaunchFingerprint(storage.getAbsolutePath(), digest(properties), descriptors, startAttributes, infos);
+	}
+
+	/**
+	 * @param storage
+	 * @return
+	 * 		the fingerprint of the last successful launch with this framework storage,
+	 * 		or null if not available
+	 */
+	public static LaunchFingerprint load(File storage) {
+		final Path file = getFile(storage.getAbsolutePath());
+		if (!Files.isRegularFile(file))
+			return null;
+		final Properties props = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			props.load(in);
+		} catch (IOException e) {
+			OgemaLauncher.LOGGER.fine("Could not read launch fingerprint: " + e);
+			return null;
+		}
+		if (!storage.getAbsolutePath().equals(props.getProperty(STORAGE_KEY)) || !FORMAT.equals(props.getProperty(FORMAT_KEY)))
+			return null;
+		final Map<String, String> bundles = new LinkedHashMap<>();
+		final Map<String, String> startAttributes = new LinkedHashMap<>();
+		for (String key : props.stringPropertyNames()) {
+			if (key.startsWith(BUNDLE_PREFIX))
+				bundles.put(key.substring(BUNDLE_PREFIX.length()), props.getProperty(key));
+			else if (key.startsWith(START_PREFIX))
+				startAttributes.put(key.substring(START_PREFIX.length()), props.getProperty(key));
+		}
+		return new LaunchFingerprint(props.getProperty(STORAGE_KEY), props.getProperty(PROPERTIES_KEY),
+				bundles, startAttributes, new LinkedHashMap<String, BundleInfo>());
+	}
+
+	/**
+	 * Delete the persisted fingerprint; to be called before the framework storage is modified,
+	 * so that an interrupted launch is not mistaken for a successful one.
+	 * @param storage
+	 * 		the framework storage directory
+	 */
+	public static void invalidate(File storage) {
+		try {
+			Files.deleteIfExists(getFile(storage.getAbsolutePath()));
+		} catch (IOException e) {
+			OgemaLauncher.LOGGER.warning("Could not delete launch fingerprint: " + e);
+		}
+	}
+
+	public void store() {
+		final Properties props = new Properties();
+		props.setProperty(STORAGE_KEY, storage);
+		props.setProperty(FORMAT_KEY, FORMAT);
+		if (propertiesDigest != null)
+			props.setProperty(PROPERTIES_KEY, propertiesDigest);
+		for (Map.Entry<String, String> e : bundles.entrySet()) {
+			props.setProperty(BUNDLE_PREFIX + e.getKey(), e.getValue());
+		}
+		for (Map.Entry<String, String> e : startAttributes.entrySet()) {
+			props.setProperty(START_PREFIX + e.getKey(), e.getValue());
+		}
+		final Path file = getFile(storage);
+		try {
+			Files.createDirectories(file.getParent());
+			final Path tmp = Files.createTempFile(file.getParent(), "fingerprint", ".tmp");
+			try {
+				try (OutputStream out = Files.newOutputStream(tmp)) {
+					props.store(out, "Bundles and properties of the last successful launch");
+				}
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		} catch (IOException e) {
+			OgemaLauncher.LOGGER.warning("Could not write launch fingerprint: " + e);
+		}
+	}
+
+	/**
+	 * @param previous
+	 * @return
+	 * 		the bundles of this launch that are new or whose artifact has changed with respect to
+	 * 		<code>previous</code>; they need to be installed or updated
+	 */
+	public List<BundleInfo> getChangedBundles(LaunchFingerprint previous) {
+		final List<BundleInfo> changed = new ArrayList<>();
+		for (Map.Entry<String, String> e : bundles.entrySet()) {
+			if (!e.getValue().equals(previous.bundles.get(e.getKey())))
+				changed.add(infos.get(e.getKey()));
+		}
+		return changed;
+	}
+
+	/**
+	 * @param previous
+	 * @return
+	 * 		the bundles of this launch with an unchanged artifact, whose start level or start flag
+	 * 		has changed with respect to <code>previous</code>; only their start level needs to be set
+	 */
+	public List<BundleInfo> getStartChangedBundles(LaunchFingerprint previous) {
+		final List<BundleInfo> changed = new ArrayList<>();
+		for (Map.Entry<String, String> e : startAttributes.entrySet()) {
+			final String id = e.getKey();
+			if (bundles.get(id).equals(previous.bundles.get(id)) && !e.getValue().equals(previous.startAttributes.get(id)))
+				changed.add(infos.get(id));
+		}
+		return changed;
+	}
+
+	/**
+	 * @param previous
+	 * @return
+	 * 		identities of the bundles that were part of <code>previous</code>, but are not configured any more
+	 */
+	public List<String> getRemovedBundles(LaunchFingerprint previous) {
+		final List<String> removed = new ArrayList<>();
+		for (String id : previous.bundles.keySet()) {
+			if (!bundles.containsKey(id))
+				removed.add(id);
+		}
+		return removed;
+	}
+
+	public boolean propertiesChanged(LaunchFingerprint previous) {
+		return propertiesDigest == null || !propertiesDigest.equals(previous.propertiesDigest);
+	}
+
+	static Path getFile(File storage) {
+		return getFile(storage.getAbsolutePath());
+	}
+
+	// several framework instances may share the launcher data directory, see InstanceSupervisor
+	private static Path getFile(String storage) {
+		final String name = FILE_PREFIX + Integer.toHexString(storage.hashCode()) + FILE_SUFFIX;
+		return new File(FrameworkUtil.getLauncherDataDir(), name).toPath();
+	}
+
+	static String getIdentity(BundleInfo bi) {
+		final String coords = bi.getMavenCoords();
+		if (coords != null && !coords.isEmpty())
+			return coords;
+		final File f = bi.getFileLocation();
+		if (f != null)
+			return f.getPath().replace(File.separatorChar, '/');
+		return bi.getSymbolicName() + "-" + bi.getVersion();
+	}
+
+	private static String getDescriptor(BundleInfo bi) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(bi.getVersion()).append(',').append(bi.getBinDir());
+		final File f = bi.getFileLocation();
+		// a stat is much cheaper than resolving the bundle, and detects replaced bundle files
+		if (f != null && f.isFile())
+			sb.append(',').append(f.length()).append(',').append(f.lastModified());
+		return sb.toString();
+	}
+
+	private static String digest(Map<String, String> properties) {
+		final MessageDigest md = FileDigest.sha256();
+		for (Map.Entry<String, String> e : new TreeMap<>(properties).entrySet()) {
+			md.update(e.getKey().getBytes(StandardCharsets.UTF_8));
+			md.update((byte) '=');
+			md.update(String.valueOf(e.getValue()).getBytes(StandardCharsets.UTF_8));
+			md.update((byte) 0);
+		}
+		return FileDigest.toHex(md.digest());
+	}
+
+}
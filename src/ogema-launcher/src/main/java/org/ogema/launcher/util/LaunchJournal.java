@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ogema.launcher.BundleInfo;
+import org.ogema.launcher.OgemaLauncher;
+
+/**
+ * Write-ahead journal of the bundle operations of a launch that modifies the framework storage
+ * (clean start, -ub, or a partial update). The planned installs and updates are written before
+ * the first operation, each completed operation and finally the start level assignment are
+ * appended, each record forced to disk, as is the directory entry of a new journal. The journal
+ * is deleted when the launch has completed.<br>
+ * If the launcher is interrupted, e.g. by a power loss, the next start finds the journal via
+ * {@link #recover(File)} and repeats only the incomplete operations, instead of requiring a clean
+ * start. All operations are idempotent: an install of a bundle that turns out to be installed
+ * already becomes an update.
+ */
+public class LaunchJournal implements Closeable {
+
+	private static final String FILE_PREFIX = "journal-";
+	private static final String FILE_SUFFIX = ".log";
+	private static final String STORAGE = "STORAGE ";
+	private static final String PLAN = "PLAN ";
+	private static final String DONE = "DONE ";
+	private static final String START_LEVELS = "STARTLEVELS";
+
+	private final Path file;
+	private final FileChannel channel;
+
+	private LaunchJournal(Path file, FileChannel channel) {
+		this.file = file;
+		this.channel = channel;
+	}
+
+	/**
+	 * Starts a new journal, replacing an existing one, and records the planned operations.
+	 * @param storage
+	 * 		the framework storage directory
+	 * @param planned
+	 * 		the bundles to be installed or updated
+	 * @return
+	 * 		the journal, or null if it cannot be written; the launch proceeds without it then
+	 */
+	public static LaunchJournal begin(File storage, Collection<BundleInfo> planned) {
+		final Path file = getFile(storage);
+		try {
+			final Path dir = file.getParent();
+			final boolean dirCreated = !Files.isDirectory(dir);
+			Files.createDirectories(dir);
+			final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			final LaunchJournal journal = new LaunchJournal(file, channel);
+			final StringBuilder sb = new StringBuilder();
+			sb.append(STORAGE).append(storage.getAbsolutePath()).append('\n');
+			for (BundleInfo bi : planned) {
+				sb.append(PLAN).append(LaunchFingerprint.getIdentity(bi)).append('\n');
+			}
+			journal.append(sb);
+			// the directory entries, so that the journal is found after a power loss
+			forceDirectory(dir);
+			if (dirCreated)
+				forceDirectory(dir.getParent());
+			return journal;
+		} catch (IOException e) {
+			OgemaLauncher.LOGGER.warning("Could not write launch journal: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Record completed install or update operations. The operation counts as completed
+	 * if it has failed, too; it would fail again.
+	 */
+	public void done(Collection<BundleInfo> bundles) {
+		final StringBuilder sb = new StringBuilder();
+		for (BundleInfo bi : bundles) {
+			sb.append(DONE).append(LaunchFingerprint.getIdentity(bi)).append('\n');
+		}
+		appendQuietly(sb);
+	}
+
+	public void startLevelsDone() {
+		appendQuietly(new StringBuilder(START_LEVELS).append('\n'));
+	}
+
+	/**
+	 * The launch has completed, delete the journal.
+	 */
+	public void commit() {
+		close();
+		delete(file);
+	}
+
+	/**
+	 * Delete the journal of a storage whose content has been replaced, e.g. by a rollback.
+	 * @param storage
+	 * 		the framework storage directory
+	 */
+	public static void discard(File storage) {
+		delete(getFile(storage));
+	}
+
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			OgemaLauncher.LOGGER.warning("Could not delete launch journal: " + e);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException ignore) {
+		}
+	}
+
+	private void appendQuietly(StringBuilder sb) {
+		try {
+			append(sb);
+		} catch (IOException e) {
+			OgemaLauncher.LOGGER.warning("Could not write launch journal: " + e);
+		}
+	}
+
+	private void append(StringBuilder sb) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		// file content only; the metadata is not needed to read the journal back
+		channel.force(false);
+	}
+
+	private static void forceDirectory(Path dir) {
+		try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException ignore) { // not supported on all platforms, e.g. Windows
+		}
+	}
+
+	/**
+	 * @param storage
+	 * 		the framework storage directory
+	 * @return
+	 * 		the state of an interrupted launch, or null if the last launch has completed
+	 */
+	public static Recovery recover(File storage) {
+		final Path file = getFile(storage);
+		if (!Files.isRegularFile(file))
+			return null;
+		final Set<String> planned = new LinkedHashSet<>();
+		final Set<String> done = new HashSet<>();
+		boolean startLevelsDone = false;
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// a record torn by the interruption does not match any bundle
+				if (line.startsWith(PLAN))
+					planned.add(line.substring(PLAN.length()));
+				else if (line.startsWith(DONE))
+					done.add(line.substring(DONE.length()));
+				else if (line.equals(START_LEVELS))
+					startLevelsDone = true;
+			}
+		} catch (IOException e) {
+			OgemaLauncher.LOGGER.warning("Could not read launch journal: " + e);
+			return null;
+		}
+		return new Recovery(planned, done, startLevelsDone);
+	}
+
+	private static Path getFile(File storage) {
+		final String name = FILE_PREFIX + Integer.toHexString(storage.getAbsolutePath().hashCode()) + FILE_SUFFIX;
+		return new File(FrameworkUtil.getLauncherDataDir(), name).toPath();
+	}
+
+	/**
+	 * The journal of an interrupted launch.
+	 */
+	public static class Recovery {
+
+		private final Set<String> planned;
+		private final Set<String> done;
+		private final boolean startLevelsDone;
+
+		private Recovery(Set<String> planned, Set<String> done, boolean startLevelsDone) {
+			this.planned = planned;
+			this.done = done;
+			this.startLevelsDone = startLevelsDone;
+		}
+
+		/**
+		 * @param bundles
+		 * 		the configured bundles
+		 * @return
+		 * 		the configured bundles whose install or update has not completed
+		 */
+		public List<BundleInfo> getIncomplete(Collection<BundleInfo> bundles) {
+			return select(bundles, false);
+		}
+
+		/**
+		 * @param bundles
+		 * 		the configured bundles
+		 * @return
+		 * 		the configured bundles that have been installed or updated, but whose start level
+		 * 		may not have been set; empty if the start levels have been set
+		 */
+		public List<BundleInfo> getStartLevelsPending(Collection<BundleInfo> bundles) {
+			if (startLevelsDone)
+				return Collections.emptyList();
+			return select(bundles, true);
+		}
+
+		private List<BundleInfo> select(Collection<BundleInfo> bundles, boolean completed) {
+			final List<BundleInfo> result = new ArrayList<>();
+			for (BundleInfo bi : bundles) {
+				final String id = LaunchFingerprint.getIdentity(bi);
+				if (planned.contains(id) && done.contains(id) == completed)
+					result.add(bi);
+			}
+			return result;
+		}
+
+	}
+
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.util;
+
+/**
+ * Launch phase and bundle being processed by the current thread, added to the log records by
+ * the {@link JsonLogFormatter}. Both are only known for the thread running the launch; records
+ * of other threads, e.g. framework threads, carry neither, since such threads outlive the phase
+ * in which they were created.
+ */
+public class LogContext {
+
+	private static final ThreadLocal<String> PHASE = new ThreadLocal<>();
+	private static final ThreadLocal<String> BUNDLE = new ThreadLocal<>();
+
+	private LogContext() {}
+
+	/**
+	 * Sets the launch phase and clears the bundle.
+	 * @param phase
+	 * 		null to clear
+	 */
+	public static void setPhase(String phase) {
+		PHASE.set(phase);
+		BUNDLE.remove();
+	}
+
+	public static String getPhase() {
+		return PHASE.get();
+	}
+
+	/**
+	 * @param bundle
+	 * 		null to clear
+	 */
+	public static void setBundle(String bundle) {
+		BUNDLE.set(bundle);
+	}
+
+	public static String getBundle() {
+		return BUNDLE.get();
+	}
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.ogema.launcher.OgemaLauncher;
+
+/**
+ * Translates a policy file into the encoded form of its conditional permissions, as accepted
+ * by <code>ConditionalPermissionAdmin#newConditionalPermissionInfo(String)</code>, one entry
+ * per permission. Comment lines are skipped, and the OGEMA userName condition is replaced by a
+ * bundle location condition for the user rights proxy.<br>
+ * The result is cached in the launcher data directory, keyed by the SHA-256 hash of the policy
+ * file, so that an unchanged policy file is not parsed again; within the VM it is kept in memory.
+ */
+public class PolicyCompiler {
+
+	private static final String FILE_PREFIX = "policy-";
+	private static final String FILE_SUFFIX = ".cache";
+	// OGEMA2 user rights proxy stuff
+	private static final String USER_NAME = "userName";
+	private static final Pattern USER_NAME_LOCATION = Pattern.compile("(.*userName)[ \t]*\"([a-zA-Z_0-9]*)\"");
+	private static final Pattern USER_NAME_CONDITION = Pattern.compile("(.*)userName(.*)");
+	// key: hash of the policy file
+	private static final Map<String, List<String>> COMPILED = new HashMap<>();
+
+	private PolicyCompiler() {}
+
+	/**
+	 * @param policyFile
+	 * @return
+	 * 		the encoded conditional permissions, in the order of the file
+	 * @throws IOException
+	 * 		if the policy file cannot be read
+	 */
+	public static List<String> compile(File policyFile) throws IOException {
+		final byte[] content = Files.readAllBytes(policyFile.toPath());
+		final String hash = FileDigest.sha256Hex(content);
+		synchronized (COMPILED) {
+			final List<String> compiled = COMPILED.get(hash);
+			if (compiled != null)
+				return compiled;
+		}
+		final Path cacheFile = getCacheFile(policyFile);
+		List<String> entries = load(cacheFile, hash);
+		if (entries == null) {
+			// the policy file has always been read with the platform encoding
+			entries = parse(new String(content, Charset.defaultCharset()));
+			store(cacheFile, hash, entries);
+		} else {
+			OgemaLauncher.LOGGER.fine("Using the cached policy of " + policyFile);
+		}
+		entries = Collections.unmodifiableList(entries);
+		synchronized (COMPILED) {
+			COMPILED.put(hash, entries);
+		}
+		return entries;
+	}
+
+	private static List<String> parse(String policy) throws IOException {
+		final List<String> entries = new ArrayList<>();
+		final BufferedReader in = new BufferedReader(new StringReader(policy));
+		StringBuilder entry = new StringBuilder();
+		for (String line = in.readLine(); line != null; line = in.readLine()) {
+			if (line.trim().startsWith("#")) {
+				continue;
+			}
+			// both patterns require the userName keyword
+			if (line.contains(USER_NAME)) {
+				line = USER_NAME_LOCATION.matcher(line).replaceFirst("$1 \"file:./ogema/users/$2/urp$2\"");
+				line = USER_NAME_CONDITION.matcher(line)
+						.replaceFirst("$1org.osgi.service.condpermadmin.BundleLocationCondition$2");
+			}
+			entry.append(line);
+			if (line.contains("}")) {
+				entries.add(entry.toString());
+				entry = new StringBuilder();
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * @return
+	 * 		the cached entries, or null if there are none for this hash
+	 */
+	private static List<String> load(Path cacheFile, String hash) {
+		if (!Files.isRegularFile(cacheFile))
+			return null;
+		try {
+			final List<String> lines = Files.readAllLines(cacheFile, StandardCharsets.UTF_8);
+			if (lines.isEmpty() || !lines.get(0).equals(hash))
+				return null;
+			return new ArrayList<>(lines.subList(1, lines.size()));
+		} catch (IOException e) {
+			OgemaLauncher.LOGGER.fine("Could not read policy cache: " + e);
+			return null;
+		}
+	}
+
+	private static void store(Path cacheFile, String hash, List<String> entries) {
+		final List<String> lines = new ArrayList<>(entries.size() + 1);
+		lines.add(hash);
+		lines.addAll(entries); // an entry never contains a line break, lines are joined
+		try {
+			Files.createDirectories(cacheFile.getParent());
+			// unique, launches with the same policy file may store concurrently
+			final Path tmp = Files.createTempFile(cacheFile.getParent(), FILE_PREFIX, ".tmp");
+			try {
+				Files.write(tmp, lines, StandardCharsets.UTF_8);
+				Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		} catch (IOException e) {
+			OgemaLauncher.LOGGER.fine("Could not write policy cache: " + e);
+		}
+	}
+
+	private static Path getCacheFile(File policyFile) {
+		final String name = FILE_PREFIX + Integer.toHexString(policyFile.getAbsolutePath().hashCode()) + FILE_SUFFIX;
+		return new File(FrameworkUtil.getLauncherDataDir(), name).toPath();
+	}
+
+}
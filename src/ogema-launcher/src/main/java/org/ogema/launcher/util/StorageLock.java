@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * Exclusive lock on a framework storage directory, held as long as a framework runs on it.
+ * The lock file is located next to the storage directory and named <code>&lt;storage&gt;.lock</code>,
+ * so that it is not removed by a clean start. Launches with different storage directories, such
+ * as parallel test runs in one rundir or the instances of a supervisor, do not block each other.
+ * The lock is held per process, a second attempt from the same VM fails as well.
+ */
+public class StorageLock implements Closeable {
+
+	public static final String SUFFIX = ".lock";
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileLock lock;
+
+	private StorageLock(File file, RandomAccessFile raf, FileLock lock) {
+		this.file = file;
+		this.raf = raf;
+		this.lock = lock;
+	}
+
+	/**
+	 * @param storage
+	 * 		the framework storage directory, need not exist
+	 * @return
+	 * 		the lock, or null if the storage is locked by another launcher
+	 * @throws IOException
+	 * 		if the lock file cannot be created
+	 */
+	public static StorageLock tryAcquire(File storage) throws IOException {
+		final File file = getLockFile(storage);
+		final File parent = file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs())
+			throw new IOException("Could not create directory " + parent);
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		FileLock lock = null;
+		try {
+			lock = raf.getChannel().tryLock();
+		} catch (OverlappingFileLockException e) { // locked by this VM
+		} finally {
+			if (lock == null)
+				raf.close();
+		}
+		return lock != null ? new StorageLock(file, raf, lock) : null;
+	}
+
+	public static File getLockFile(File storage) {
+		final File abs = storage.getAbsoluteFile();
+		return new File(abs.getParentFile(), abs.getName() + SUFFIX);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Releases the lock; the file is kept, deleting it could let two launchers lock different files.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			lock.release();
+		} finally {
+			raf.close();
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Date;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.ogema.launcher.OgemaLauncher;
+
+/**
+ * Copy of the framework storage in the state of the last successful launch, located next to the
+ * storage as <code>&lt;storage&gt;.snapshot</code>. It is taken before the storage is modified by
+ * -ub or a partial update, so that a failed update can be rolled back without a clean start.
+ * The {@link LaunchFingerprint} of the storage is part of the snapshot and restored with it, so
+ * that the next launch detects the difference to the configuration and retries the update.<br>
+ * The content of a bundle revision is never modified in place by the framework, an update creates
+ * a new revision; it is hard linked into the snapshot, which takes no time and space. Revisions
+ * are recognized by the storage layout of Felix (<code>bundle&lt;id&gt;/version&lt;n&gt;.&lt;m&gt;/</code>)
+ * and Equinox (<code>org.eclipse.osgi/&lt;id&gt;/&lt;generation&gt;/</code>), and by the content file
+ * names of other frameworks (<code>*.jar</code>, <code>bundleFile</code>, <code>jar&lt;n&gt;</code>).
+ * All other files are copied, since they may be rewritten in place. If the file system does not
+ * support hard links, everything is copied. Restoring uses the same mechanism, so the snapshot
+ * remains valid for further rollbacks.
+ */
+public class StorageSnapshot {
+
+	public static final String SUFFIX = ".snapshot";
+	// the fingerprint of the storage, inside the snapshot
+	private static final String FINGERPRINT = ".launcher-fingerprint.properties";
+	// relative path with '/' separators
+	private static final Pattern REVISION_CONTENT = Pattern.compile("(?:.*/)?bundle\\d+/version\\d+\\.\\d+/.+"
+			+ "|(?:.*/)?org\\.eclipse\\.osgi/\\d+/\\d+/.+"
+			+ "|(?:.*/)?(?:[^/]+\\.jar|bundle[fF]ile|jar\\d*)");
+
+	private final File storage;
+	private final Path snapshot;
+
+	public StorageSnapshot(File storage) {
+		this.storage = storage.getAbsoluteFile();
+		this.snapshot = new File(this.storage.getParentFile(), this.storage.getName() + SUFFIX).toPath();
+	}
+
+	public boolean exists() {
+		return Files.isDirectory(snapshot);
+	}
+
+	/**
+	 * @return
+	 * 		time the snapshot has been taken
+	 */
+	public Date getDate() throws IOException {
+		return new Date(Files.getLastModifiedTime(snapshot).toMillis());
+	}
+
+	/**
+	 * Replaces the snapshot by the current content of the storage. The framework must not run
+	 * on the storage.
+	 * @return
+	 * 		true if the snapshot has been taken
+	 */
+	public boolean capture() {
+		final long start = System.currentTimeMillis();
+		final Path tmp = sibling(".tmp");
+		final Path old = sibling(".old");
+		try {
+			delete(tmp);
+			final long[] stats = copyTree(storage.toPath(), tmp);
+			final Path fingerprint = LaunchFingerprint.getFile(storage);
+			if (Files.isRegularFile(fingerprint))
+				Files.copy(fingerprint, tmp.resolve(FINGERPRINT));
+			// the previous snapshot stays valid until the new one is complete
+			delete(old);
+			if (Files.exists(snapshot))
+				Files.move(snapshot, old, StandardCopyOption.ATOMIC_MOVE);
+			Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE);
+			Files.setLastModifiedTime(snapshot, FileTime.fromMillis(start)); // see getDate()
+			if (Files.exists(old))
+				Trash.dispose(old.toFile());
+			OgemaLauncher.LOGGER.fine(String.format("Storage snapshot taken in %d ms, %d files linked, %d bytes copied",
+					System.currentTimeMillis() - start, stats[0], stats[1]));
+			return true;
+		} catch (IOException e) {
+			OgemaLauncher.LOGGER.warning("Could not take a snapshot of the framework storage: " + e);
+			try {
+				delete(tmp);
+			} catch (IOException ignore) {
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Replaces the storage by the snapshot. The framework must not run on the storage.
+	 * @return
+	 * 		true if the storage has been restored
+	 */
+	public boolean restore() {
+		if (!exists())
+			return false;
+		final long start = System.currentTimeMillis();
+		final Path tmp = sibling(".restore");
+		final Path failed = sibling(".failed");
+		try {
+			delete(tmp);
+			copyTree(snapshot, tmp);
+			delete(failed);
+			// describes the replaced storage; a snapshot without a fingerprint leaves none
+			final Path fingerprint = LaunchFingerprint.getFile(storage);
+			Files.deleteIfExists(fingerprint);
+			if (storage.exists())
+				Files.move(storage.toPath(), failed, StandardCopyOption.ATOMIC_MOVE);
+			Files.move(tmp, storage.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			final Path restoredFingerprint = storage.toPath().resolve(FINGERPRINT);
+			if (Files.exists(restoredFingerprint)) {
+				Files.createDirectories(fingerprint.getParent());
+				Files.move(restoredFingerprint, fingerprint, StandardCopyOption.REPLACE_EXISTING);
+			}
+			if (Files.exists(failed))
+				Trash.dispose(failed.toFile());
+			OgemaLauncher.LOGGER.info(String.format("Framework storage restored from the snapshot of %s in %d ms",
+					getDate(), System.currentTimeMillis() - start));
+			return true;
+		} catch (IOException e) {
+			OgemaLauncher.LOGGER.severe("Could not restore the framework storage from " + snapshot + ": " + e);
+			return false;
+		}
+	}
+
+	private Path sibling(String suffix) {
+		return snapshot.resolveSibling(snapshot.getFileName() + suffix);
+	}
+
+	private static void delete(Path dir) throws IOException {
+		if (Files.exists(dir))
+			FileUtils.deleteDirectory(dir.toFile());
+	}
+
+	/**
+	 * @return
+	 * 		number of hard linked files, and number of bytes copied
+	 */
+	private static long[] copyTree(final Path source, final Path target) throws IOException {
+		final long[] stats = new long[2];
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+
+			private boolean linksSupported = true;
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				final String relative = source.relativize(file).toString();
+				final Path copy = target.resolve(relative);
+				if (linksSupported && REVISION_CONTENT.matcher(relative.replace(File.separatorChar, '/')).matches()) {
+					try {
+						Files.createLink(copy, file);
+						stats[0]++;
+						return FileVisitResult.CONTINUE;
+					} catch (UnsupportedOperationException | IOException e) {
+						OgemaLauncher.LOGGER.fine("Hard links not supported, copying the storage: " + e);
+						linksSupported = false;
+					}
+				}
+				Files.copy(file, copy, StandardCopyOption.COPY_ATTRIBUTES);
+				stats[1] += attrs.size();
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return stats;
+	}
+
+}
@@ -12,6 +12,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.logging.Level;
 import org.ogema.launcher.OgemaLauncher;
 
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
@@ -36,11 +37,22 @@ public class TarPackagingUtil extends AbstractPackagingUtil {
 
     @Override
 	protected void writeEntry(ArchiveOutputStream zos, String filename, File file) throws IOException {
-        OgemaLauncher.LOGGER.fine("adding to archive: " + filename);
-        TarArchiveEntry entry = new TarArchiveEntry(file, filename.replace(File.separator, "/"));
-        if (isExecutable(file)){
-            entry.setMode(0755);
-            OgemaLauncher.LOGGER.fine("mark as executable: " + filename);
+        OgemaLauncher.LOGGER.log(Level.FINE, "adding to archive: {0}", filename);
+        final TarArchiveEntry entry;
+        if (isReproducible()) {
+            // do not take owner, permissions and modification time from the file system
+            entry = new TarArchiveEntry(filename.replace(File.separator, "/"));
+            entry.setSize(file.length());
+            entry.setModTime(getEntryTime());
+            entry.setMode(isExecutable(file) ? 0100755 : 0100644);
+            entry.setIds(0, 0);
+            entry.setNames("", "");
+        } else {
+            entry = new TarArchiveEntry(file, filename.replace(File.separator, "/"));
+            if (isExecutable(file)){
+                entry.setMode(0755);
+                OgemaLauncher.LOGGER.log(Level.FINE, "mark as executable: {0}", filename);
+            }
         }
 		zos.putArchiveEntry(entry);
 		FileInputStream fis = null;
@@ -14,6 +14,7 @@ import java.io.OutputStream;
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
 
 /**
  * Utility class for building an OGEMA distribution archive. Can be customized
@@ -33,7 +34,13 @@ public class TgzPackagingUtil extends TarPackagingUtil {
 
     @Override
     protected ArchiveOutputStream createStream(OutputStream os) throws IOException {
-        GzipCompressorOutputStream zipStream = new GzipCompressorOutputStream(os);
+        final GzipParameters params = new GzipParameters();
+        if (isReproducible()) {
+            // the gzip header would otherwise contain the build time
+            params.setModificationTime(0);
+            params.setOperatingSystem(255);
+        }
+        GzipCompressorOutputStream zipStream = new GzipCompressorOutputStream(os, params);
         TarArchiveOutputStream tarStream = new TarArchiveOutputStream(zipStream);
         tarStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
         return tarStream;
@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.ogema.launcher.OgemaLauncher;
+
+/**
+ * Deletes directories in the background. A directory is renamed into the trash directory
+ * <code>.launcher-trash</code> next to it, which is a cheap and atomic operation on the same
+ * file system, and then deleted by a low priority daemon thread while the framework starts.<br>
+ * If the VM terminates before the deletion has finished, the remainder is reclaimed by a later
+ * launch, see {@link #reclaim(Collection)}. If the directory cannot be renamed, e.g. because
+ * the trash would be on another file system, it is deleted synchronously.
+ */
+public class Trash {
+
+	public static final String DIR = ".launcher-trash";
+
+	// guarded by PENDING
+	private static final Set<Path> PENDING = new HashSet<>();
+	private static ExecutorService executor;
+
+	private Trash() {}
+
+	/**
+	 * Removes a directory from its location and deletes it in the background.
+	 * @param dir
+	 * 		an existing directory
+	 */
+	public static void dispose(File dir) {
+		final File abs = dir.getAbsoluteFile();
+		final Path trash = new File(abs.getParentFile(), DIR).toPath();
+		Path container = null;
+		try {
+			Files.createDirectories(trash);
+			// unique per disposal, the same directory may be disposed again before it has been deleted
+			container = Files.createTempDirectory(trash, abs.getName() + "-");
+			Files.move(abs.toPath(), container.resolve(abs.getName()), StandardCopyOption.ATOMIC_MOVE);
+			schedule(container);
+			return;
+		} catch (IOException | UnsupportedOperationException e) {
+			OgemaLauncher.LOGGER.fine("Could not move " + abs + " to the trash, deleting it now: " + e);
+			if (container != null)
+				container.toFile().delete();
+		}
+		try {
+			FileUtils.deleteDirectory(abs);
+		} catch (IOException e) {
+			OgemaLauncher.LOGGER.warning("Unable to delete " + abs + " - Error message: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Deletes the leftovers of earlier launches in the background.
+	 * @param locations
+	 * 		files or directories whose sibling trash is to be emptied
+	 */
+	public static void reclaim(Collection<File> locations) {
+		final Set<File> trashes = new LinkedHashSet<>();
+		for (File f : locations) {
+			trashes.add(new File(f.getAbsoluteFile().getParentFile(), DIR));
+		}
+		for (File trash : trashes) {
+			if (!trash.isDirectory())
+				continue;
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(trash.toPath())) {
+				for (Path p : stream) {
+					schedule(p);
+				}
+			} catch (IOException e) {
+				OgemaLauncher.LOGGER.warning("Could not read " + trash + ": " + e);
+			}
+		}
+	}
+
+	private static void schedule(final Path path) {
+		synchronized (PENDING) {
+			if (!PENDING.add(path))
+				return;
+			if (executor == null) {
+				executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable r) {
+						final Thread t = new Thread(r, "launcher-trash");
+						t.setDaemon(true);
+						t.setPriority(Thread.MIN_PRIORITY);
+						return t;
+					}
+				});
+			}
+		}
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				final long start = System.currentTimeMillis();
+				try {
+					if (Files.isDirectory(path))
+						FileUtils.deleteDirectory(path.toFile());
+					else
+						Files.deleteIfExists(path);
+					OgemaLauncher.LOGGER.fine(String.format("Deleted %s in %d ms", path,
+							System.currentTimeMillis() - start));
+				} catch (IOException e) {
+					OgemaLauncher.LOGGER.warning("Unable to delete " + path + " - Error message: " + e.getMessage());
+				} finally {
+					synchronized (PENDING) {
+						PENDING.remove(path);
+						if (PENDING.isEmpty())
+							path.getParent().toFile().delete(); // only if empty
+					}
+				}
+			}
+		});
+	}
+
+}
@@ -12,6 +12,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.logging.Level;
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
@@ -39,11 +40,15 @@ public class ZipPackagingUtil extends AbstractPackagingUtil {
     @Override
     protected void writeEntry(ArchiveOutputStream os, String filename, File file) throws IOException {
         byte[] buf = new byte[4096];
-        OgemaLauncher.LOGGER.fine("adding to archive: " + filename);
+        OgemaLauncher.LOGGER.log(Level.FINE, "adding to archive: {0}", filename);
         ZipArchiveEntry entry = new ZipArchiveEntry(filename.replace(File.separator, "/"));
-        if (isExecutable(file)){
+        if (isReproducible()) {
+            // regular file type bits included, independent of the file system
+            entry.setUnixMode(isExecutable(file) ? 0100755 : 0100644);
+            entry.setTime(toZipTime(getEntryTime()));
+        } else if (isExecutable(file)){
             entry.setUnixMode(0755);
-            OgemaLauncher.LOGGER.fine("set as executable: " + filename);
+            OgemaLauncher.LOGGER.log(Level.FINE, "set as executable: {0}", filename);
         }
 		os.putArchiveEntry(entry);
 		FileInputStream fis = null;
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2016 Fraunhofer-Gesellschaft
+ *                     zur Förderung der angewandten Wissenschaften e.V.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.ogema.launcher.config.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.ogema.launcher.config.FrameworkConfiguration;
+
+/**
+ * Timing of the {@link ConfigIniParser} for a config.ini with many bundle entries on continued
+ * lines, compared to the previous per-entry regular expression extraction on the same file.
+ * Not part of the default test run; run with <code>mvn test -Pbenchmark</code>. The number
+ * of entries and iterations can be set with the system properties
+ * <code>benchmark.entries</code> and <code>benchmark.iterations</code>.
+ */
+public class ConfigIniParserBenchmark {
+
+	private static final int ENTRIES = Integer.getInteger("benchmark.entries", 2000);
+	private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 200);
+	private static final int WARMUP = ITERATIONS / 2;
+	private static File configFile;
+
+	@BeforeClass
+	public static void createConfig() throws IOException {
+		configFile = File.createTempFile("benchmark", ".ini");
+		try (Writer out = Files.newBufferedWriter(configFile.toPath(), StandardCharsets.ISO_8859_1)) {
+			out.write("osgi.bundles=");
+			for (int i = 0; i < ENTRIES; i++) {
+				out.write(String.format("  bin/osgi/bundle%d-1.0.%d.jar@%d:start(mvn=org.example:bundle%d:1.0.%d)%s%n",
+						i, i, 1 + i % 5, i, i, i < ENTRIES - 1 ? ",\\" : ""));
+			}
+			out.write("org.osgi.framework.storage=data/osgi-storage\n");
+		}
+	}
+
+	@AfterClass
+	public static void deleteConfig() {
+		configFile.delete();
+	}
+
+	@Test
+	public void parse() throws Exception {
+		final ConfigIniParser parser = new ConfigIniParser();
+		FrameworkConfiguration cfg = null;
+		for (int i = 0; i < WARMUP; i++) {
+			cfg = parser.parse(configFile);
+		}
+		assertEquals(ENTRIES, cfg.getBundles().size());
+		final long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			parser.parse(configFile);
+		}
+		report("ConfigIniParser", start);
+	}
+
+	@Test
+	public void previousExtraction() throws Exception {
+		for (int i = 0; i < WARMUP; i++) {
+			assertEquals(ENTRIES, parsePrevious());
+		}
+		final long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			parsePrevious();
+		}
+		report("previous extraction", start);
+	}
+
+	private static void report(String name, long startNanos) {
+		System.out.println(String.format("%s: %d entries, %.3f ms per parse", name, ENTRIES,
+				(System.nanoTime() - startNanos) / 1e6 / ITERATIONS));
+	}
+
+	/*
+	 * The extraction as it was before the single-pass tokenizer: split at every comma,
+	 * and one pattern compilation and scan per attribute and entry.
+	 */
+	private static int parsePrevious() throws IOException {
+		final Properties p = new Properties();
+		try (Reader reader = new BufferedReader(new FileReader(configFile))) {
+			p.load(reader);
+		}
+		int count = 0;
+		for (String entry : p.getProperty("osgi.bundles").split(",")) {
+			final int slash = entry.lastIndexOf('/');
+			final String binDir = slash >= 0 ? entry.substring(0, slash) : "";
+			final String fileName = entry.substring(slash + 1, entry.indexOf(".jar") + 4);
+			final int mvn = entry.indexOf("(mvn=");
+			final String coords = mvn >= 0 ? entry.substring(mvn + 5, entry.lastIndexOf(')')) : null;
+			final Matcher level = Pattern.compile("\\@{1}[0-9]{1,}").matcher(entry);
+			final int startLevel = level.find() ? Integer.parseInt(level.group().substring(1)) : 0;
+			final boolean start = Pattern.compile("\\:start").matcher(entry).find();
+			if (!binDir.isEmpty() && fileName.endsWith(".jar") && coords != null && startLevel > 0 && start)
+				count++;
+		}
+		return count;
+	}
+
+}